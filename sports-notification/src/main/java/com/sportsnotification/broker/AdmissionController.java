@@ -0,0 +1,119 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// Sheds publishes while the dispatch backlog or heap usage is above its high watermark, and admits
+// them again once both are back under their low watermarks. The gap between the two keeps the
+// broker from flapping in and out of overload on every publish. Heap usage is what the last
+// collection left live, so garbage waiting for the next young GC does not count.
+@Profile("broker")
+@Component
+public class AdmissionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+    private volatile boolean queueOverloaded = false;
+    private volatile boolean heapOverloaded = false;
+    private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+
+    @Autowired
+    private PriorityMessageQueue messages;
+
+    @Value("${broker.admission.queue.high-watermark:50000}")
+    private int queueHighWatermark;
+
+    @Value("${broker.admission.queue.low-watermark:40000}")
+    private int queueLowWatermark;
+
+    @Value("${broker.admission.heap.high-watermark:0.9}")
+    private double heapHighWatermark;
+
+    @Value("${broker.admission.heap.low-watermark:0.8}")
+    private double heapLowWatermark;
+
+    // Priorities that are shed under overload; leave HIGH out to keep accepting critical alerts
+    @Value("${broker.admission.shed-priorities:LOW,NORMAL,HIGH}")
+    private Set<Priority> shedPriorities;
+
+    @Value("${broker.admission.retry-after-seconds:1}")
+    private long retryAfterSeconds;
+
+    @PostConstruct
+    public void init() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                heapPools.add(pool);
+            }
+        }
+    }
+
+    // Returns null if the packet is admitted, otherwise the status to reject it with:
+    // 429 while the backlog is too deep, 503 while the heap is too full
+    public HttpStatus admit(Packet message) {
+        refresh();
+        if (!queueOverloaded && !heapOverloaded) {
+            return null;
+        }
+        if (!shedPriorities.contains(message.getPriority() != null ? message.getPriority() : Priority.NORMAL)) {
+            return null;
+        }
+        return heapOverloaded ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.TOO_MANY_REQUESTS;
+    }
+
+    public int getBacklog() {
+        return messages.size();
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    private void refresh() {
+        int backlog = messages.size();
+        if (!queueOverloaded && backlog >= queueHighWatermark) {
+            queueOverloaded = true;
+            logger.warn("Dispatch backlog {} reached the high watermark {}, shedding publishes.", backlog, queueHighWatermark);
+        } else if (queueOverloaded && backlog <= queueLowWatermark) {
+            queueOverloaded = false;
+            logger.info("Dispatch backlog {} is back under the low watermark {}.", backlog, queueLowWatermark);
+        }
+
+        double heapUsage = heapUsageAfterGc();
+        if (!heapOverloaded && heapUsage >= heapHighWatermark) {
+            heapOverloaded = true;
+            logger.warn("Heap usage {} reached the high watermark {}, shedding publishes.", String.format("%.2f", heapUsage), heapHighWatermark);
+        } else if (heapOverloaded && heapUsage <= heapLowWatermark) {
+            heapOverloaded = false;
+            logger.info("Heap usage {} is back under the low watermark {}.", String.format("%.2f", heapUsage), heapLowWatermark);
+        }
+    }
+
+    // Fraction of the maximum heap in use right after each pool's most recent collection
+    private double heapUsageAfterGc() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            MemoryUsage afterGc = pool.getCollectionUsage();
+            if (afterGc != null) {
+                used += afterGc.getUsed();
+            }
+        }
+        return used / (double) Runtime.getRuntime().maxMemory();
+    }
+}
@@ -0,0 +1,30 @@
+package com.sportsnotification.broker;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+// Reports the dispatch backlog on every broker response, so clients can back off before they are shed
+@Profile("broker")
+@Component
+public class BacklogHeaderFilter extends OncePerRequestFilter {
+
+    public static final String BACKLOG_HEADER = "X-Broker-Backlog";
+
+    @Autowired
+    private AdmissionController admissionController;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        response.setHeader(BACKLOG_HEADER, String.valueOf(admissionController.getBacklog()));
+        filterChain.doFilter(request, response);
+    }
+}
@@ -1,22 +1,35 @@
 package com.sportsnotification.broker;
 
+import com.sportsnotification.dto.AckPolicy;
 import com.sportsnotification.dto.Broker;
+import com.sportsnotification.dto.DispatchLaneStats;
+import com.sportsnotification.dto.MessagePage;
+import com.sportsnotification.dto.PartitionTable;
 import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.PollResult;
+import com.sportsnotification.dto.PublishResult;
 import com.sportsnotification.dto.Publisher;
+import com.sportsnotification.dto.PublisherQuota;
+import com.sportsnotification.dto.ReplicationAck;
+import com.sportsnotification.dto.ReplicationBatch;
 import com.sportsnotification.dto.Subscriber;
+import com.sportsnotification.dto.SubscriberQueueStats;
+import com.sportsnotification.dto.SubscriptionChange;
+import com.sportsnotification.dto.SubscriptionSnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 @Profile("broker")
 @RestController
@@ -65,24 +78,62 @@ public class BrokerController {
     }
 
     @PostMapping("/publish")
-    public ResponseEntity<String> publishMessage(@RequestBody Packet message) {
+    public ResponseEntity<String> publishMessage(@RequestBody Packet message, @RequestParam(required = false) AckPolicy ack) {
         try {
             logger.info("Publishing message: {}", message);
-            return brokerService.publishMessage(message);
+            return brokerService.publishMessage(message, ack);
         } catch (Exception e) {
             logger.error("Error publishing message {}: {}", message, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error publishing message");
         }
     }
 
-    @PostMapping("/replicatemessages")
-    public ResponseEntity<String> updateMessages(@RequestBody ConcurrentLinkedQueue<Packet> messageQueue) {
+    @PostMapping("/publish-batch")
+    public ResponseEntity<List<PublishResult>> publishMessages(@RequestBody List<Packet> messages, @RequestParam(required = false) AckPolicy ack) {
         try {
-            logger.info("Replicating messages: {}", messageQueue);
-            return brokerService.updateMessages(messageQueue);
+            logger.info("Publishing {} messages", messages.size());
+            return brokerService.publishMessages(messages, ack);
+        } catch (Exception e) {
+            logger.error("Error publishing messages: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Internal: a partition's new leader fetches what the previous leader appended after its own log
+    @PostMapping("/handoverpartition")
+    public ResponseEntity<ReplicationBatch> handOverPartition(@RequestParam int partition, @RequestParam long after,
+                                                              @RequestBody PartitionTable table) {
+        try {
+            logger.info("Handing over partition {} after offset {}", partition, after);
+            return brokerService.handOverPartition(partition, after, table);
+        } catch (Exception e) {
+            logger.error("Error handing over partition {}: {}", partition, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @GetMapping("/messages")
+    public ResponseEntity<MessagePage> getMessages(@RequestParam String topic,
+                                                   @RequestParam(defaultValue = "1") long fromOffset,
+                                                   @RequestParam(defaultValue = "100") int max) {
+        try {
+            logger.info("Fetching messages for topic {} from offset {}", topic, fromOffset);
+            return ResponseEntity.ok(brokerService.getMessages(topic, fromOffset, max));
+        } catch (Exception e) {
+            logger.error("Error fetching messages for topic {}: {}", topic, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @PostMapping("/replicatelog")
+    public ResponseEntity<ReplicationAck> replicateLog(@RequestBody ReplicationBatch batch) {
+        try {
+            logger.info("Replicating {} log entries of partition {}, delivered up to offset {}", batch.getEntries() == null ? 0 : batch.getEntries().size(),
+                    batch.getPartition(), batch.getDeliveredOffset());
+            return brokerService.applyReplication(batch);
         } catch (Exception e) {
             logger.error("Error replicating messages: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error replicating messages");
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
@@ -97,8 +148,84 @@ public class BrokerController {
         }
     }
 
+    @PostMapping("/replicateconflatedtopics")
+    public ResponseEntity<String> updateConflatedTopics(@RequestBody ConcurrentSkipListSet<String> conflatedTopics) {
+        try {
+            logger.info("Replicating conflated topics: {}", conflatedTopics);
+            return brokerService.updateConflatedTopics(conflatedTopics);
+        } catch (Exception e) {
+            logger.error("Error replicating conflated topics: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error replicating conflated topics");
+        }
+    }
+
+    @PutMapping("/topics/conflation")
+    public ResponseEntity<String> setTopicConflation(@RequestParam String topic, @RequestParam boolean enabled) {
+        try {
+            logger.info("Setting conflation for topic {} to {}", topic, enabled);
+            return brokerService.setTopicConflation(topic, enabled);
+        } catch (Exception e) {
+            logger.error("Error setting conflation for topic {}: {}", topic, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error setting topic conflation");
+        }
+    }
+
+    @GetMapping("/topics/conflation")
+    public ResponseEntity<ConcurrentSkipListSet<String>> getConflatedTopics() {
+        try {
+            return ResponseEntity.ok(brokerService.getConflatedTopics());
+        } catch (Exception e) {
+            logger.error("Error fetching conflated topics: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @PostMapping("/replicatequotas")
+    public ResponseEntity<String> updateQuotas(@RequestBody List<PublisherQuota> quotas) {
+        try {
+            logger.info("Replicating publisher quotas: {}", quotas.size());
+            return brokerService.updateQuotas(quotas);
+        } catch (Exception e) {
+            logger.error("Error replicating publisher quotas: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error replicating publisher quotas");
+        }
+    }
+
+    @PostMapping("/replicatepullcursors")
+    public ResponseEntity<String> updatePullCursors(@RequestBody Map<String, String> cursors) {
+        try {
+            return brokerService.updatePullCursors(cursors);
+        } catch (Exception e) {
+            logger.error("Error replicating pull cursors: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error replicating pull cursors");
+        }
+    }
+
+    @PutMapping("/publishers/{publisherId}/quota")
+    public ResponseEntity<String> setPublisherQuota(@PathVariable String publisherId,
+                                                    @RequestParam(required = false) Double rate,
+                                                    @RequestParam(required = false) Integer burst) {
+        try {
+            logger.info("Setting quota for publisher {}: rate {}, burst {}", publisherId, rate, burst);
+            return brokerService.setPublisherQuota(publisherId, rate, burst);
+        } catch (Exception e) {
+            logger.error("Error setting quota for publisher {}: {}", publisherId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error setting publisher quota");
+        }
+    }
+
+    @GetMapping("/publishers/quotas")
+    public ResponseEntity<List<PublisherQuota>> getPublisherQuotas() {
+        try {
+            return ResponseEntity.ok(brokerService.getPublisherQuotas());
+        } catch (Exception e) {
+            logger.error("Error fetching publisher quotas: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     @PostMapping("/replicatesubscribers")
-    public ResponseEntity<String> updateSubscribers(@RequestBody CopyOnWriteArrayList<Subscriber> subscribers) {
+    public ResponseEntity<String> updateSubscribers(@RequestBody List<Subscriber> subscribers) {
         try {
             logger.info("Replicating subscribers: {}", subscribers);
             return brokerService.updateSubscribers(subscribers);
@@ -109,7 +236,7 @@ public class BrokerController {
     }
 
     @PostMapping("/replicatetopicstosubscribers")
-    public ResponseEntity<String> updateTopicsToSubscribers(@RequestBody ConcurrentHashMap<String, List<Subscriber>> topicsToSubscribers) {
+    public ResponseEntity<String> updateTopicsToSubscribers(@RequestBody Map<String, List<Subscriber>> topicsToSubscribers) {
         try {
             logger.info("Replicating topics to subscribers: {}", topicsToSubscribers);
             return brokerService.updateTopicsToSubscribers(topicsToSubscribers);
@@ -119,6 +246,39 @@ public class BrokerController {
         }
     }
 
+    @PostMapping("/replicatesubscriptionchanges")
+    public ResponseEntity<ReplicationAck> applySubscriptionChanges(@RequestBody List<SubscriptionChange> changes) {
+        try {
+            logger.info("Replicating {} subscription changes", changes.size());
+            return brokerService.applySubscriptionChanges(changes);
+        } catch (Exception e) {
+            logger.error("Error replicating subscription changes: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @PostMapping("/commitsubscriptionchange")
+    public ResponseEntity<Boolean> commitSubscriptionChange(@RequestBody SubscriptionChange change) {
+        try {
+            logger.info("Committing forwarded subscription change: {}", change.getType());
+            return brokerService.commitForwardedSubscriptionChange(change);
+        } catch (Exception e) {
+            logger.error("Error committing subscription change: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @PostMapping("/replicatesubscriptionsnapshot")
+    public ResponseEntity<String> applySubscriptionSnapshot(@RequestBody SubscriptionSnapshot snapshot) {
+        try {
+            logger.info("Replicating subscription snapshot at version {}", snapshot.getVersion());
+            return brokerService.applySubscriptionSnapshot(snapshot);
+        } catch (Exception e) {
+            logger.error("Error replicating subscription snapshot: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error replicating subscription snapshot");
+        }
+    }
+
     @PutMapping("/subscribe")
     public ResponseEntity<String> subscribeToTopic(@RequestBody Subscriber subscriber) {
         try {
@@ -161,6 +321,38 @@ public class BrokerController {
         }
     }
 
+    @PutMapping("/update-partitions")
+    public void updatePartitions(@RequestBody PartitionTable table) {
+        try {
+            logger.info("Updating routing table to version {}", table.getVersion());
+            brokerService.updatePartitions(table);
+        } catch (Exception e) {
+            logger.error("Error updating routing table: {}", e.getMessage(), e);
+        }
+    }
+
+    // Which broker leads each partition, for publishers to send to the right one
+    @GetMapping("/routing")
+    public ResponseEntity<PartitionTable> getRoutingTable() {
+        try {
+            return ResponseEntity.ok(brokerService.getRoutingTable());
+        } catch (Exception e) {
+            logger.error("Error fetching routing table: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @GetMapping("/routing/leader")
+    public ResponseEntity<Broker> getPartitionLeader(@RequestParam String topic) {
+        try {
+            Broker leader = brokerService.getPartitionLeader(topic);
+            return leader != null ? ResponseEntity.ok(leader) : ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            logger.error("Error fetching partition leader for topic {}: {}", topic, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     @GetMapping("/brokers-list")
     public List<Broker> getBrokersList() {
         try {
@@ -171,4 +363,88 @@ public class BrokerController {
             return List.of();
         }
     }
-}
+
+    @GetMapping("/subscriber-queues")
+    public ResponseEntity<List<SubscriberQueueStats>> getSubscriberQueues() {
+        try {
+            logger.info("Fetching subscriber queue stats");
+            return ResponseEntity.ok(brokerService.getSubscriberQueueStats());
+        } catch (Exception e) {
+            logger.error("Error fetching subscriber queue stats: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @GetMapping("/dispatch-lanes")
+    public ResponseEntity<List<DispatchLaneStats>> getDispatchLanes() {
+        try {
+            logger.info("Fetching dispatch lane stats");
+            return ResponseEntity.ok(brokerService.getDispatchLaneStats());
+        } catch (Exception e) {
+            logger.error("Error fetching dispatch lane stats: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // One long-lived Server-Sent Events connection instead of a callback per message.
+    // Event ids are log positions, an offset per partition; a reconnect with Last-Event-ID resumes after them.
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream(@RequestParam List<String> topics,
+                                             @RequestParam(required = false) String filter,
+                                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        try {
+            logger.info("Opening stream for topics: {}", topics);
+            return ResponseEntity.ok(brokerService.openStream(topics, filter, lastEventId));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejected stream for topics {}: {}", topics, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            logger.error("Error opening stream for topics {}: {}", topics, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @GetMapping("/streams")
+    public ResponseEntity<List<SubscriberQueueStats>> getStreams() {
+        try {
+            return ResponseEntity.ok(brokerService.getStreamStats());
+        } catch (Exception e) {
+            logger.error("Error fetching stream stats: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Pull mode: answers right away when messages are waiting, otherwise parks until some arrive or waitMs passes
+    @GetMapping("/poll")
+    public DeferredResult<ResponseEntity<PollResult>> poll(@RequestParam String subscriberId,
+                                                          @RequestParam(defaultValue = "100") int maxMessages,
+                                                          @RequestParam(defaultValue = "0") long waitMs,
+                                                          @RequestParam(required = false) String ack) {
+        try {
+            return brokerService.poll(subscriberId, maxMessages, waitMs, ack);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejected poll for subscriber {}: {}", subscriberId, e.getMessage());
+            DeferredResult<ResponseEntity<PollResult>> rejected = new DeferredResult<>();
+            rejected.setResult(ResponseEntity.badRequest().build());
+            return rejected;
+        } catch (Exception e) {
+            logger.error("Error polling for subscriber {}: {}", subscriberId, e.getMessage(), e);
+            DeferredResult<ResponseEntity<PollResult>> error = new DeferredResult<>();
+            error.setResult(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+            return error;
+        }
+    }
+
+    @PostMapping("/poll/ack")
+    public ResponseEntity<String> ackPoll(@RequestParam String subscriberId, @RequestParam String cursor) {
+        try {
+            return brokerService.ackPoll(subscriberId, cursor);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejected ack for subscriber {}: {}", subscriberId, e.getMessage());
+            return ResponseEntity.badRequest().body("Invalid cursor");
+        } catch (Exception e) {
+            logger.error("Error acking for subscriber {}: {}", subscriberId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error acking messages");
+        }
+    }
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.sportsnotification.broker;
 
 import com.sportsnotification.dto.Broker;
+import com.sportsnotification.dto.PartitionTable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
@@ -40,8 +41,6 @@ public class BrokerRegistration {
     @Value("${isLocal:false}")
     private boolean isLocal;
 
-    private Thread messageProcessingThread;
-
     @PostConstruct
     public void registerBroker() {
         try {
@@ -61,12 +60,15 @@ public class BrokerRegistration {
                 CopyOnWriteArrayList<Broker> brokerList = new CopyOnWriteArrayList<>();
                 for (Broker broker : brokers) {
                     if (broker.getId() == currentBroker.getId() && broker.isLeader()) {
-                        logger.info("Broker {} is a leader. Starting message processing thread.", brokerId);
-                        startMessageProcessingThread();
+                        logger.info("Broker {} is a leader.", brokerId);
+                        currentBroker.setLeader(true);
                     }
                     brokerList.add(broker);
                 }
                 brokerService.setBrokerList(brokerList);
+                fetchRoutingTable();
+                // Followers deliver their shard of the replicated messages as well
+                brokerService.startMessageProcessingThread();
                 logger.info("Broker registration completed successfully.");
             }
         } catch (Exception e) {
@@ -74,20 +76,12 @@ public class BrokerRegistration {
         }
     }
 
-    private void startMessageProcessingThread() {
+    // The coordinator pushes later changes, but not to a broker that is still registering
+    private void fetchRoutingTable() {
         try {
-            if (messageProcessingThread != null && messageProcessingThread.isAlive()) {
-                logger.warn("Message processing thread is already running.");
-                return; // Prevent multiple threads
-            }
-
-            logger.info("Starting message processing thread.");
-            MessageProcessor messageProcessor = new MessageProcessor(brokerService, restTemplate);
-            messageProcessingThread = new Thread(messageProcessor);
-            messageProcessingThread.setDaemon(true);
-            messageProcessingThread.start();
+            brokerService.updatePartitions(restTemplate.getForObject(coordinatorUrl + "/coordinator/partitions", PartitionTable.class));
         } catch (Exception e) {
-            logger.error("Error starting message processing thread: {}", e.getMessage(), e);
+            logger.error("Error fetching routing table: {}", e.getMessage());
         }
     }
 
@@ -1,43 +1,124 @@
 package com.sportsnotification.broker;
 
+import com.sportsnotification.dto.AckPolicy;
 import com.sportsnotification.dto.Broker;
+import com.sportsnotification.dto.DispatchLaneStats;
+import com.sportsnotification.dto.MessagePage;
+import com.sportsnotification.dto.PartitionTable;
 import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.PollResult;
+import com.sportsnotification.dto.PublishResult;
+import com.sportsnotification.dto.PublishStatus;
 import com.sportsnotification.dto.Publisher;
+import com.sportsnotification.dto.PublisherQuota;
+import com.sportsnotification.dto.ReplicationAck;
+import com.sportsnotification.dto.ReplicationBatch;
 import com.sportsnotification.dto.Subscriber;
+import com.sportsnotification.dto.SubscriberQueueStats;
+import com.sportsnotification.dto.SubscriptionChange;
+import com.sportsnotification.dto.SubscriptionChangeType;
+import com.sportsnotification.dto.SubscriptionSnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.util.UriComponentsBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+@Profile("broker")
 @Service
 public class BrokerService {
     private static final Logger logger = LoggerFactory.getLogger(BrokerService.class);
     private final CopyOnWriteArrayList<Broker> brokers = new CopyOnWriteArrayList<>();
-    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
     private final CopyOnWriteArrayList<Publisher> publishers = new CopyOnWriteArrayList<>();
     private final ConcurrentSkipListSet<String> topics = new ConcurrentSkipListSet<>();
-    private final ConcurrentHashMap<String, List<Subscriber>> topicsSubscriber = new ConcurrentHashMap<>(); // Broadcast thread
-    private final ConcurrentLinkedQueue<Packet> messages = new ConcurrentLinkedQueue<>();
+    private final ConcurrentSkipListSet<String> conflatedTopics = new ConcurrentSkipListSet<>();
+    private volatile Broker leaderBroker; // the cluster leader as last elected by the coordinator
 
     @Autowired
     @Lazy
     private BrokerRegistration brokerRegistration;
 
+    @Autowired
+    private SubscriptionRegistry subscriptionRegistry;
+
+    @Autowired
+    private SubscriptionChangeLog subscriptionChanges;
+
+    @Autowired
+    private PriorityMessageQueue messages;
+
+    @Autowired
+    private SubscriberQueueManager subscriberQueues;
+
+    @Autowired
+    private FilterCompiler filterCompiler;
+
+    @Autowired
+    private DedupWindow dedupWindow;
+
+    @Autowired
+    private AdmissionController admissionController;
+
+    @Autowired
+    private PublisherRateLimiter rateLimiter;
+
+    @Autowired
+    private SubscriberStreamManager streams;
+
+    @Autowired
+    private PullConsumerManager pullConsumers;
+
+    @Autowired
+    private ReplicationLog replicationLog;
+
+    @Autowired
+    private ReplicationPipeline replicationPipeline;
+
+    @Autowired
+    private TopicHistory topicHistory;
+
+    @Autowired
+    private DeliveryShards deliveryShards;
+
+    @Autowired
+    private PartitionRouter partitionRouter;
+
     @Autowired
     private RestTemplate restTemplate;
 
+    @Value("${broker.dispatch.threads:8}")
+    private int dispatchThreads;
+
+    @Value("${broker.replication.ack-policy:LEADER}")
+    private AckPolicy defaultAckPolicy;
+
+    @Value("${broker.replication.ack-timeout-ms:5000}")
+    private long ackTimeoutMs;
+
+    @Value("${broker.replication.max-batch:500}")
+    private int handoverBatch;
+
     private Thread messageProcessingThread;
+    private volatile MessageProcessor messageProcessor;
 
     public ConcurrentSkipListSet<String> getAllTopics() {
         return topics;
@@ -48,17 +129,35 @@ public class BrokerService {
             throw new IllegalArgumentException("Connection URL cannot be null");
         }
         publishers.add(publisher);
+        if (publisher.getId() != null && (publisher.getRate() != null || publisher.getBurst() != null)) {
+            rateLimiter.setQuota(publisher.getId(), publisher.getRate(), publisher.getBurst());
+            replicateQuotasToAllBrokers(rateLimiter.getConfiguredQuotas());
+        }
+    }
+
+    public ResponseEntity<String> setPublisherQuota(String publisherId, Double rate, Integer burst) {
+        try {
+            rateLimiter.setQuota(publisherId, rate, burst);
+            logger.info("Quota for publisher {} set to rate {} and burst {}", publisherId, rate, burst);
+            replicateQuotasToAllBrokers(rateLimiter.getConfiguredQuotas());
+            return ResponseEntity.ok("Publisher quota updated successfully.");
+        } catch (Exception e) {
+            logger.error("Error updating publisher quota: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error updating publisher quota.");
+        }
+    }
+
+    public List<PublisherQuota> getPublisherQuotas() {
+        return rateLimiter.getQuotas();
     }
 
     public ResponseEntity<String>  registerSubscriber(Subscriber subscriber) {
         try {
-            if (!isSubscriberAlreadyExist(subscriber.getConnectionUrl())) {
-                if (subscriber.getConnectionUrl() == null) {
-                    throw new IllegalArgumentException("Connection URL cannot be null");
-                }
-                subscribers.add(subscriber);
+            if (subscriber.getConnectionUrl() == null) {
+                throw new IllegalArgumentException("Connection URL cannot be null");
+            }
+            if (commitSubscriptionChange(SubscriptionChangeType.REGISTER, subscriber)) {
                 logger.info("Registered Subscriber Id: {}", subscriber.getId());
-                replicateSubscribersToAllBrokers(subscribers);
                 return ResponseEntity.ok("Subscriber registered successfully.");
             }
             return ResponseEntity.ok("Subscriber Already Registered.");
@@ -68,20 +167,57 @@ public class BrokerService {
         }
     }
 
-    public ResponseEntity<String>  publishMessage(Packet message) {
+    public ResponseEntity<String>  publishMessage(Packet message, AckPolicy ackPolicy) {
         try {
-            if (message.getTopic() == null || message.getMessage() == null) {
-                throw new IllegalArgumentException("Topic and Message cannot be null");
+            String invalid = validate(message);
+            if (invalid != null) {
+                throw new IllegalArgumentException(invalid);
             }
-
-            if (!topics.contains(message.getTopic())) {
-                topics.add(message.getTopic());
-                replicateTopicsToAllBrokers(topics);
+            Broker leader = partitionRouter.leaderOf(message.getTopic());
+            if (leader != null && !partitionRouter.leads(message.getTopic())) {
+                return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT)
+                        .location(URI.create(leader.getConnectionUrl() + "/broker/publish"))
+                        .body("Topic " + message.getTopic() + " is led by broker " + leader.getId() + ".");
+            }
+            if (!sequences(message.getTopic())) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "1")
+                        .body("Partition leader not ready, retry later.");
+            }
+            message.setPartition(partitionRouter.partitionOf(message.getTopic())); // dedup windows are per partition
+            HttpStatus shed = admissionController.admit(message);
+            if (shed != null) {
+                return ResponseEntity.status(shed)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(admissionController.getRetryAfterSeconds()))
+                        .body("Broker overloaded, retry later.");
+            }
+            // Retries of stored messages are answered before the rate limit, so they cost no quota
+            if (dedupWindow.isDuplicate(message)) {
+                logger.info("Dropping duplicate message {} from producer {}", message.getMid(), message.getPid());
+                return ResponseEntity.ok("Duplicate message ignored.");
+            }
+            long throttledNanos = rateLimiter.acquire(message.getPid());
+            if (throttledNanos > 0) {
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds(throttledNanos)))
+                        .body("Publisher rate limit exceeded.");
+            }
+            if (!dedupWindow.admit(message)) {
+                rateLimiter.refund(message.getPid()); // a concurrent retry got there first
+                logger.info("Dropping duplicate message {} from producer {}", message.getMid(), message.getPid());
+                return ResponseEntity.ok("Duplicate message ignored.");
             }
-            messages.add(message);
-            logger.info("I am the leader - I received a message and I will process it - {}", message.getMessage());
-            replicateMessageToAllBrokers(messages);
 
+            boolean acknowledged;
+            try {
+                acknowledged = store(List.of(message), ackPolicy);
+            } catch (Exception e) {
+                dedupWindow.forget(message); // not stored, so its retry has to get through
+                throw e;
+            }
+            if (!acknowledged) {
+                return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body("Message published but not yet acknowledged.");
+            }
             return ResponseEntity.ok("Message successfully published.");
         } catch (Exception e) {
             logger.error("Error publishing message: {}", e.getMessage());
@@ -89,15 +225,203 @@ public class BrokerService {
         }
     }
 
-    public ResponseEntity<String> updateMessages(ConcurrentLinkedQueue<Packet> messageQueue) {
+    // Stores all valid packets, registers their new topics and replicates them in one round
+    public ResponseEntity<List<PublishResult>> publishMessages(List<Packet> batch, AckPolicy ackPolicy) {
         try {
-            this.messages.clear();
-            this.messages.addAll(messageQueue);
-            return ResponseEntity.ok("Message successfully published.");
+            List<PublishResult> results = new ArrayList<>(batch.size());
+            List<Packet> accepted = new ArrayList<>(batch.size());
+            HttpStatus shedStatus = null;
+            long retryAfter = admissionController.getRetryAfterSeconds();
+            long throttledNanos;
+            for (int i = 0; i < batch.size(); i++) {
+                Packet message = batch.get(i);
+                String invalid = message == null ? "Packet cannot be null" : validate(message);
+                if (invalid == null) {
+                    message.setPartition(partitionRouter.partitionOf(message.getTopic())); // dedup windows are per partition
+                }
+                Broker leader = invalid == null ? partitionRouter.leaderOf(message.getTopic()) : null;
+                boolean misrouted = leader != null && !partitionRouter.leads(message.getTopic());
+                boolean unready = invalid == null && !misrouted && !sequences(message.getTopic());
+                HttpStatus shed = invalid == null && !misrouted && !unready ? admissionController.admit(message) : null;
+                if (invalid != null) {
+                    results.add(new PublishResult(i, PublishStatus.REJECTED, null, invalid));
+                } else if (misrouted) {
+                    results.add(new PublishResult(i, PublishStatus.MISROUTED, null, "Led by broker at " + leader.getConnectionUrl()));
+                } else if (unready) {
+                    shedStatus = shedStatus != null ? shedStatus : HttpStatus.SERVICE_UNAVAILABLE;
+                    results.add(new PublishResult(i, PublishStatus.THROTTLED, null, "Partition leader not ready, retry later"));
+                } else if (shed != null) {
+                    shedStatus = shed;
+                    results.add(new PublishResult(i, PublishStatus.THROTTLED, null, "Broker overloaded, retry later"));
+                } else if (dedupWindow.isDuplicate(message)) {
+                    results.add(new PublishResult(i, PublishStatus.DUPLICATE, null, null));
+                } else if ((throttledNanos = rateLimiter.acquire(message.getPid())) > 0) {
+                    shedStatus = shedStatus != null ? shedStatus : HttpStatus.TOO_MANY_REQUESTS;
+                    retryAfter = Math.max(retryAfter, retryAfterSeconds(throttledNanos));
+                    results.add(new PublishResult(i, PublishStatus.THROTTLED, null, "Publisher rate limit exceeded"));
+                } else if (!dedupWindow.admit(message)) {
+                    rateLimiter.refund(message.getPid());
+                    results.add(new PublishResult(i, PublishStatus.DUPLICATE, null, null));
+                } else {
+                    results.add(new PublishResult(i, PublishStatus.PUBLISHED, null, null));
+                    accepted.add(message);
+                }
+            }
+            if (accepted.isEmpty()) {
+                if (shedStatus != null) {
+                    return ResponseEntity.status(shedStatus)
+                            .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                            .body(results);
+                }
+                boolean rejected = results.stream().anyMatch(result -> result.getStatus() == PublishStatus.REJECTED
+                        || result.getStatus() == PublishStatus.MISROUTED);
+                return rejected ? ResponseEntity.badRequest().body(results) : ResponseEntity.ok(results);
+            }
+
+            boolean acknowledged;
+            try {
+                acknowledged = store(accepted, ackPolicy);
+            } catch (Exception e) {
+                accepted.forEach(dedupWindow::forget);
+                throw e;
+            }
+            for (PublishResult result : results) {
+                if (result.getStatus() == PublishStatus.PUBLISHED) {
+                    result.setOffset(batch.get(result.getIndex()).getOffset());
+                    if (!acknowledged) {
+                        result.setStatus(PublishStatus.NOT_ACKNOWLEDGED);
+                    }
+                }
+            }
+            ResponseEntity.BodyBuilder response = ResponseEntity.status(acknowledged ? HttpStatus.OK : HttpStatus.GATEWAY_TIMEOUT);
+            if (shedStatus != null) {
+                response.header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+            }
+            return response.body(results);
         } catch (Exception e) {
-            logger.error("Error updating messages: {}", e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error updating messages.");
+            logger.error("Error publishing messages: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Every partition has its own log, sequenced by the partition's leader, which stores, fsyncs and
+    // replicates what it admitted itself; intake has already set each packet's partition. Returns
+    // whether the ack policy was met.
+    private boolean store(List<Packet> accepted, AckPolicy ackPolicy) throws Exception {
+        boolean newTopics = false;
+        for (Packet message : accepted) {
+            newTopics |= topics.add(message.getTopic());
         }
+        if (newTopics) {
+            replicateTopicsToAllBrokers(topics);
+        }
+        CompletableFuture<Void> stored = replicationLog.appendAll(accepted, messages::addAll);
+        replicateMessageToAllBrokers();
+        return awaitAcknowledgement(stored, accepted, ackPolicy);
+    }
+
+    // Whether this broker leads the topic's partition and holds everything its previous leader appended
+    private boolean sequences(String topic) {
+        return partitionRouter.leads(topic) && replicationLog.isSequencing(partitionRouter.partitionOf(topic));
+    }
+
+    private Broker clusterLeader() {
+        return leaderBroker;
+    }
+
+    // Broker lists from the coordinator flag the leader elected when they were sent
+    private void rememberLeader(List<Broker> brokers) {
+        for (Broker broker : brokers) {
+            if (broker.isLeader()) {
+                leaderBroker = broker;
+            }
+        }
+    }
+
+    private static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+    }
+
+    private String validate(Packet message) {
+        if (message.getTopic() == null || message.getMessage() == null) {
+            return "Topic and Message cannot be null";
+        }
+        if (!TopicTrie.isValidTopic(message.getTopic())) {
+            return "Invalid topic: " + message.getTopic();
+        }
+        return null;
+    }
+
+    // Waits until the messages are stored and replicated as the ack policy requires; false on timeout
+    private boolean awaitAcknowledgement(CompletableFuture<Void> stored, List<Packet> accepted, AckPolicy ackPolicy) throws Exception {
+        AckPolicy policy = ackPolicy != null ? ackPolicy : defaultAckPolicy;
+        if (policy == AckPolicy.NONE) {
+            return true;
+        }
+        Map<Integer, Long> lastOffsets = new TreeMap<>();
+        for (Packet message : accepted) {
+            lastOffsets.merge(message.getPartition(), message.getOffset(), Math::max);
+        }
+        List<CompletableFuture<Void>> acknowledged = new ArrayList<>();
+        acknowledged.add(stored);
+        lastOffsets.forEach((partition, offset) -> acknowledged.add(replicationPipeline.awaitReplication(partition, offset, policy)));
+        try {
+            CompletableFuture.allOf(acknowledged.toArray(new CompletableFuture<?>[0]))
+                    .get(ackTimeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            logger.warn("Offsets {} not acknowledged for policy {} within {} ms", ReplicationLog.formatPositions(lastOffsets), policy, ackTimeoutMs);
+            // Drops the followers' waiters for these offsets; the stored future belongs to the log and is left alone
+            for (CompletableFuture<Void> replicated : acknowledged.subList(1, acknowledged.size())) {
+                replicated.cancel(false);
+            }
+            return false;
+        }
+    }
+
+    // Opts a topic in or out of per-key conflation in subscriber queues
+    public ResponseEntity<String> setTopicConflation(String topic, boolean enabled) {
+        try {
+            if (!TopicTrie.isValidTopic(topic)) {
+                throw new IllegalArgumentException("Invalid topic: " + topic);
+            }
+            boolean changed = enabled ? conflatedTopics.add(topic) : conflatedTopics.remove(topic);
+            if (changed) {
+                logger.info("Conflation {} for topic: {}", enabled ? "enabled" : "disabled", topic);
+                replicateConflatedTopicsToAllBrokers(conflatedTopics);
+            }
+            return ResponseEntity.ok("Topic conflation updated successfully.");
+        } catch (Exception e) {
+            logger.error("Error updating topic conflation: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error updating topic conflation.");
+        }
+    }
+
+    public boolean isConflated(String topic) {
+        return conflatedTopics.contains(topic);
+    }
+
+    public ConcurrentSkipListSet<String> getConflatedTopics() {
+        return conflatedTopics;
+    }
+
+    public ResponseEntity<ReplicationAck> applyReplication(ReplicationBatch batch) {
+        try {
+            // Replicated entries are dispatched here too, to this broker's shard of the subscribers
+            long ackedOffset = replicationLog.apply(batch, messages::add);
+            return ResponseEntity.ok(new ReplicationAck(ackedOffset, replicationLog.getDeliveredOffset(batch.getPartition())));
+        } catch (Exception e) {
+            logger.error("Error applying replicated messages: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    public MessagePage getMessages(String topic, long fromOffset, int max) {
+        return topicHistory.page(topic, fromOffset, max);
+    }
+
+    public void markDelivered(Packet message) {
+        replicationLog.markDelivered(message);
     }
 
     public ResponseEntity<String> subscribeToTopic(Subscriber subscriber) {
@@ -106,22 +430,14 @@ public class BrokerService {
                 if (subscriber.getTopic() == null) {
                     throw new IllegalArgumentException("Topic cannot be null");
                 }
-                if (topicsSubscriber.containsKey(subscriber.getTopic())) {
-                    logger.info("Subscriber Id: {}", subscriber.getId());
-                    logger.info("Subscribed to topic: {}", subscriber.getTopic());
-                    topicsSubscriber.get(subscriber.getTopic()).add(subscriber);
-                } else {
-                    List<Subscriber> subscribers = new ArrayList<>();
-                    subscribers.add(subscriber);
-                    logger.info("Subscriber Id: {}", subscriber.getId());
-                    logger.info("Subscribed to topic: {}", subscriber.getTopic());
-                    topicsSubscriber.put(subscriber.getTopic(), subscribers);
-                }
+                filterCompiler.compile(subscriber.getFilter());
+                commitSubscriptionChange(SubscriptionChangeType.SUBSCRIBE, subscriber);
+                logger.info("Subscriber Id: {}", subscriber.getId());
+                logger.info("Subscribed to topic: {}", subscriber.getTopic());
             } else {
                 logger.warn("Invalid Subscriber Id: {}", subscriber.getId());
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
             }
-            replicateTopicsToSubscribersToAllBrokers(topicsSubscriber);
             return ResponseEntity.ok("Subscriber subscribe to topic successfully.");
         } catch (Exception e) {
             logger.error("Error subscribing to topic: {}", e.getMessage());
@@ -135,22 +451,13 @@ public class BrokerService {
                 if (subscriber.getTopic() == null) {
                     throw new IllegalArgumentException("Topic cannot be null");
                 }
-                if (topicsSubscriber.containsKey(subscriber.getTopic())) {
-                    List<Subscriber> subscribers = topicsSubscriber.get(subscriber.getTopic());
-                    for (Subscriber sub : subscribers) {
-                        if (Objects.equals(sub.getConnectionUrl(), subscriber.getConnectionUrl())) {
-                            subscribers.remove(sub);
-                            break;
-                        }
-                    }
+                if (commitSubscriptionChange(SubscriptionChangeType.UNSUBSCRIBE, subscriber)) {
                     logger.info("Subscriber Id removed: {}", subscriber.getConnectionUrl());
-                    topicsSubscriber.put(subscriber.getTopic(), subscribers);
                 }
             } else {
                 logger.warn("Invalid Subscriber Id: {}", subscriber.getId());
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
             }
-            replicateTopicsToSubscribersToAllBrokers(topicsSubscriber);
             return ResponseEntity.ok("Subscriber unsubscribe to topic successfully.");
         } catch (Exception e) {
             logger.error("Error unsubscribing to topic: {}", e.getMessage());
@@ -158,14 +465,41 @@ public class BrokerService {
         }
     }
 
+    public void disconnectSubscriber(String subscriberConnectionURL) {
+        try {
+            commitSubscriptionChange(SubscriptionChangeType.REMOVE, new Subscriber(null, null, null, subscriberConnectionURL));
+            subscriberQueues.remove(subscriberConnectionURL);
+            logger.info("Disconnected subscriber: {}", subscriberConnectionURL);
+        } catch (Exception e) {
+            logger.error("Error disconnecting subscriber: {}", e.getMessage());
+        }
+    }
+
+    public List<SubscriberQueueStats> getSubscriberQueueStats() {
+        return subscriberQueues.getStats();
+    }
+
     public void updateLeader(Broker newLeader) {
         try {
             Broker currentBroker = brokerRegistration.getCurrentBroker();
+            leaderBroker = newLeader;
             if (newLeader.getId() == currentBroker.getId()) {
+                boolean promoted = !currentBroker.isLeader();
                 currentBroker.setLeader(true);
                 logger.info("I am the leader");
+                replicationPipeline.updateFollowers(peersOf(brokers));
+                if (promoted) {
+                    for (Broker peer : peersOf(brokers)) {
+                        subscriptionChanges.syncFollower(peer); // the leader now owns the subscription state
+                    }
+                }
                 startMessageProcessingThread();
+                MessageProcessor processor = messageProcessor;
+                if (promoted && processor != null) {
+                    processor.handOverPull(replicationLog, pullConsumers); // pull subscribers move to the leader
+                }
             } else {
+                currentBroker.setLeader(false); // superseded: stop numbering subscription changes
                 logger.info("Leader is: {}", newLeader.getId());
             }
         } catch (Exception e) {
@@ -177,6 +511,8 @@ public class BrokerService {
         try {
             this.brokers.clear();
             this.brokers.addAll(brokers);
+            rememberLeader(brokers);
+            updateMembership(brokers);
         } catch (Exception e) {
             logger.error("Error updating brokers: {}", e.getMessage());
         }
@@ -186,30 +522,99 @@ public class BrokerService {
         return brokers;
     }
 
+    public PartitionTable getRoutingTable() {
+        return partitionRouter.getTable();
+    }
+
+    public Broker getPartitionLeader(String topic) {
+        return partitionRouter.leaderOf(topic);
+    }
+
+    public void updatePartitions(PartitionTable table) {
+        partitionRouter.update(table);
+    }
+
+    // Previous leader side: applies the table that moved the partition away, which stops its appends,
+    // and returns what it holds after the new leader's log. 409 while it still sequences the partition.
+    public ResponseEntity<ReplicationBatch> handOverPartition(int partition, long after, PartitionTable table) {
+        try {
+            partitionRouter.update(table);
+            if (replicationLog.isSequencing(partition)) {
+                logger.warn("Not handing over partition {}, which this broker still leads", partition);
+                return ResponseEntity.status(HttpStatus.CONFLICT).build();
+            }
+            return ResponseEntity.ok(replicationLog.batchAfter(partition, after, handoverBatch));
+        } catch (Exception e) {
+            logger.error("Error handing over partition {}: {}", partition, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    public Broker getCurrentBroker() {
+        return brokerRegistration.getCurrentBroker();
+    }
+
+    public boolean isLeader() {
+        Broker currentBroker = brokerRegistration.getCurrentBroker();
+        return currentBroker != null && currentBroker.isLeader();
+    }
+
+    // Every live broker delivers a shard; when shards move, hand over what their previous owners may have missed
+    private void updateMembership(List<Broker> brokers) {
+        updateFollowers(brokers);
+        MessageProcessor processor = messageProcessor;
+        if (deliveryShards.update(brokers) && processor != null) {
+            processor.handOver(replicationLog);
+        }
+    }
+
+    // Every broker replicates the partitions it sequences to all the others. A new follower is sent the
+    // subscription state by the leader first; its dispatcher waits for it before delivering.
+    private void updateFollowers(List<Broker> brokers) {
+        List<Broker> added = replicationPipeline.updateFollowers(peersOf(brokers));
+        if (isLeader()) {
+            for (Broker broker : added) {
+                subscriptionChanges.syncFollower(broker);
+            }
+        }
+    }
+
+    public void awaitSubscriptionState() throws InterruptedException {
+        subscriptionChanges.awaitState();
+    }
+
+    private List<Broker> peersOf(List<Broker> brokers) {
+        Broker currentBroker = brokerRegistration.getCurrentBroker();
+        List<Broker> peers = new ArrayList<>();
+        for (Broker broker : brokers) {
+            if (currentBroker == null || broker.getId() != currentBroker.getId()) {
+                peers.add(broker);
+            }
+        }
+        return peers;
+    }
+
     public void setBrokerList(List<Broker> brokers) {
         try {
             this.brokers.clear();
             this.brokers.addAll(brokers);
+            rememberLeader(brokers);
+            updateMembership(brokers);
         } catch (Exception e) {
             logger.error("Error setting broker list: {}", e.getMessage());
         }
     }
-    public ConcurrentLinkedQueue<Packet> getMessagesQueue(){
+    public PriorityMessageQueue getMessagesQueue(){
         return messages;
     }
 
-    public ConcurrentHashMap<String, List<Subscriber>> getTopicsSubscriberMap(){
-        return topicsSubscriber;
+    public List<Subscriber> getSubscribersOf(String topic) {
+        return subscriptionRegistry.subscribersOf(topic);
     }
 
-    public ResponseEntity<String> replicateMessageToAllBrokers(ConcurrentLinkedQueue<Packet> messages) {
+    public ResponseEntity<String> replicateMessageToAllBrokers() {
         try {
-            for (Broker broker : brokers) {
-                if (!broker.isLeader()) {
-                    String brokenUrl = broker.getConnectionUrl();
-                    restTemplate.postForObject(brokenUrl + "/broker/replicatemessages", messages, String.class);
-                }
-            }
+            replicationPipeline.replicateLog();
             return ResponseEntity.ok("Message replicate successfully.");
         } catch (Exception e) {
             logger.error("Error replicating messages to all brokers: {}", e.getMessage());
@@ -219,12 +624,7 @@ public class BrokerService {
 
     public ResponseEntity<String> replicateTopicsToAllBrokers(ConcurrentSkipListSet<String> topics) {
         try {
-            for (Broker broker : brokers) {
-                if (!broker.isLeader()) {
-                    String brokenUrl = broker.getConnectionUrl();
-                    restTemplate.postForObject(brokenUrl + "/broker/replicatetopics", topics, String.class);
-                }
-            }
+            replicationPipeline.broadcast("/broker/replicatetopics", topics);
             return ResponseEntity.ok("Topic replicate successfully.");
         } catch (Exception e) {
             logger.error("Error replicating topics to all brokers: {}", e.getMessage());
@@ -232,40 +632,60 @@ public class BrokerService {
         }
     }
 
-    public ResponseEntity<String> replicateSubscribersToAllBrokers(CopyOnWriteArrayList<Subscriber> subscribers) {
+    public ResponseEntity<String> replicateConflatedTopicsToAllBrokers(ConcurrentSkipListSet<String> conflatedTopics) {
         try {
-            for (Broker broker : brokers) {
-                if (!broker.isLeader()) {
-                    String brokenUrl = broker.getConnectionUrl();
-                    restTemplate.postForObject(brokenUrl + "/broker/replicatesubscribers", subscribers, String.class);
-                }
-            }
-            return ResponseEntity.ok("Subscriber replicate successfully.");
+            replicationPipeline.broadcast("/broker/replicateconflatedtopics", conflatedTopics);
+            return ResponseEntity.ok("Conflated topics replicate successfully.");
         } catch (Exception e) {
-            logger.error("Error replicating subscribers to all brokers: {}", e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error replicating subscribers.");
+            logger.error("Error replicating conflated topics to all brokers: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error replicating conflated topics.");
         }
     }
 
-    public ResponseEntity<String> replicateTopicsToSubscribersToAllBrokers(ConcurrentHashMap<String, List<Subscriber>> topicsToSubscribers) {
+    public ResponseEntity<String> replicateQuotasToAllBrokers(List<PublisherQuota> quotas) {
         try {
-            for (Broker broker : brokers) {
-                if (!broker.isLeader()) {
-                    String brokenUrl = broker.getConnectionUrl();
-                    restTemplate.postForObject(brokenUrl + "/broker/replicatetopicstosubscribers", topicsToSubscribers, String.class);
-                }
-            }
-            return ResponseEntity.ok("Topic to Subscriber replicate successfully.");
+            replicationPipeline.broadcast("/broker/replicatequotas", quotas);
+            return ResponseEntity.ok("Publisher quotas replicate successfully.");
+        } catch (Exception e) {
+            logger.error("Error replicating publisher quotas to all brokers: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error replicating publisher quotas.");
+        }
+    }
+
+    public ResponseEntity<String> updateConflatedTopics(ConcurrentSkipListSet<String> conflatedTopics) {
+        try {
+            this.conflatedTopics.retainAll(conflatedTopics);
+            this.conflatedTopics.addAll(conflatedTopics);
+            return ResponseEntity.ok("Conflated topics replicate successfully.");
+        } catch (Exception e) {
+            logger.error("Error updating conflated topics: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error updating conflated topics.");
+        }
+    }
+
+    public ResponseEntity<String> updatePullCursors(Map<String, String> cursors) {
+        try {
+            pullConsumers.updateCursors(cursors);
+            return ResponseEntity.ok("Pull cursors replicate successfully.");
         } catch (Exception e) {
-            logger.error("Error replicating topics to subscribers to all brokers: {}", e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error replicating topics to subscribers.");
+            logger.error("Error updating pull cursors: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error updating pull cursors.");
+        }
+    }
+
+    public ResponseEntity<String> updateQuotas(List<PublisherQuota> quotas) {
+        try {
+            rateLimiter.replaceQuotas(quotas);
+            return ResponseEntity.ok("Publisher quotas replicate successfully.");
+        } catch (Exception e) {
+            logger.error("Error updating publisher quotas: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error updating publisher quotas.");
         }
     }
 
     public ResponseEntity<String> updateTopics(ConcurrentSkipListSet<String> topics) {
         try {
-            this.topics.clear();
-            this.topics.addAll(topics);
+            this.topics.addAll(topics); // every partition leader registers topics, so merge theirs
             return ResponseEntity.ok("Topic replicate successfully.");
         } catch (Exception e) {
             logger.error("Error updating topics: {}", e.getMessage());
@@ -273,10 +693,9 @@ public class BrokerService {
         }
     }
 
-    public ResponseEntity<String> updateSubscribers(CopyOnWriteArrayList<Subscriber> subscribers) {
+    public ResponseEntity<String> updateSubscribers(List<Subscriber> subscribers) {
         try {
-            this.subscribers.clear();
-            this.subscribers.addAll(subscribers);
+            subscriptionRegistry.replaceSubscribers(subscribers);
             return ResponseEntity.ok("Subscriber replicate successfully.");
         } catch (Exception e) {
             logger.error("Error updating subscribers: {}", e.getMessage());
@@ -284,10 +703,9 @@ public class BrokerService {
         }
     }
 
-    public ResponseEntity<String> updateTopicsToSubscribers(ConcurrentHashMap<String, List<Subscriber>> topicsToSubscribers) {
+    public ResponseEntity<String> updateTopicsToSubscribers(Map<String, List<Subscriber>> topicsToSubscribers) {
         try {
-            this.topicsSubscriber.clear();
-            this.topicsSubscriber.putAll(topicsToSubscribers);
+            subscriptionRegistry.replaceTopicSubscriptions(topicsToSubscribers);
             return ResponseEntity.ok("Topic to Subscriber replicate successfully.");
         } catch (Exception e) {
             logger.error("Error updating topics to subscribers: {}", e.getMessage());
@@ -295,40 +713,148 @@ public class BrokerService {
         }
     }
 
-    public boolean isSubscriberValid(String subscriberConnectionURL) {
-        for (Subscriber subscriber : subscribers) {
-            if (subscriber.getConnectionUrl().equals(subscriberConnectionURL)) {
-                return true;
+    // Only the leader numbers subscription changes: a follower forwards them, applies them right away
+    // and gets the numbered copy back through replication. Returns whether the change did anything.
+    private boolean commitSubscriptionChange(SubscriptionChangeType type, Subscriber subscriber) {
+        if (isLeader()) {
+            return subscriptionChanges.commit(type, subscriber);
+        }
+        Broker leader = clusterLeader();
+        if (leader == null) {
+            throw new IllegalStateException("No leader to commit the subscription change to");
+        }
+        Boolean changed = restTemplate.postForObject(leader.getConnectionUrl() + SubscriptionChangeLog.COMMIT_PATH,
+                new SubscriptionChange(0, 0, type, subscriber), Boolean.class);
+        subscriptionChanges.applyForwarded(type, subscriber);
+        return Boolean.TRUE.equals(changed);
+    }
+
+    // Leader side: a subscription change made on a follower
+    public ResponseEntity<Boolean> commitForwardedSubscriptionChange(SubscriptionChange change) {
+        try {
+            if (!isLeader()) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
             }
+            return ResponseEntity.ok(subscriptionChanges.commit(change.getType(), change.getSubscriber()));
+        } catch (Exception e) {
+            logger.error("Error committing forwarded subscription change: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
-        return false;
     }
 
-    private void startMessageProcessingThread() {
+    // 409 with the version held when the changes do not follow it, so the leader can fill the gap
+    public ResponseEntity<ReplicationAck> applySubscriptionChanges(List<SubscriptionChange> changes) {
+        try {
+            long held = subscriptionChanges.applyChanges(changes);
+            long last = changes.isEmpty() ? held : changes.get(changes.size() - 1).getVersion();
+            if (held < last) {
+                logger.warn("Subscription changes up to version {} do not follow held version {}", last, held);
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(new ReplicationAck(held));
+            }
+            return ResponseEntity.ok(new ReplicationAck(held));
+        } catch (Exception e) {
+            logger.error("Error applying subscription changes: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    public ResponseEntity<String> applySubscriptionSnapshot(SubscriptionSnapshot snapshot) {
+        try {
+            subscriptionChanges.applySnapshot(snapshot);
+            return ResponseEntity.ok("Subscription snapshot applied successfully.");
+        } catch (Exception e) {
+            logger.error("Error applying subscription snapshot: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error applying subscription snapshot.");
+        }
+    }
+
+    public boolean isSubscriberValid(String subscriberConnectionURL) {
+        return subscriptionRegistry.isRegistered(subscriberConnectionURL);
+    }
+
+    synchronized void startMessageProcessingThread() {
         if (messageProcessingThread != null && messageProcessingThread.isAlive()) {
+            logger.warn("Message processing thread is already running.");
             return; // Prevent multiple threads
         }
 
-        MessageProcessor messageProcessor = new MessageProcessor(this, restTemplate);
-        messageProcessingThread = new Thread(messageProcessor);
+        // Entries restored from the commit log still need to be delivered
+        List<Packet> undelivered = replicationLog.pendingEntries();
+        if (!undelivered.isEmpty()) {
+            logger.info("Re-queuing {} undelivered messages from the replication log.", undelivered.size());
+            messages.addAll(undelivered);
+        }
+        logger.info("Starting message processing thread with {} dispatch workers.", dispatchThreads);
+        messageProcessor = new MessageProcessor(this, subscriberQueues, filterCompiler, deliveryShards, dispatchThreads);
+        messageProcessingThread = new Thread(messageProcessor, "message-processor");
         messageProcessingThread.setDaemon(true);
         messageProcessingThread.start();
     }
 
-    private boolean isSubscriberAlreadyExist(String subscriberConnectionURL) {
-        for (Subscriber subscriber : subscribers) {
-            if (subscriber.getConnectionUrl().equals(subscriberConnectionURL)) {
-                return true;
+    public Subscriber getRegisteredSubscriber(String subscriberConnectionURL) {
+        return subscriptionRegistry.get(subscriberConnectionURL);
+    }
+
+    public PriorityMessageQueue getMessages() {
+        return this.messages;
+    }
+
+    public SubscriberStreamManager getStreams() {
+        return streams;
+    }
+
+    public SseEmitter openStream(List<String> topics, String filter, String lastEventId) {
+        return streams.open(topics, filter, lastEventId);
+    }
+
+    // Pull consumption for a subscriber registered as pull:<subscriberId>; the leader serves all of them
+    public DeferredResult<ResponseEntity<PollResult>> poll(String subscriberId, int maxMessages, long waitMs, String ackCursor) {
+        Broker leader = isLeader() ? null : clusterLeader();
+        if (leader != null) {
+            UriComponentsBuilder location = UriComponentsBuilder.fromHttpUrl(leader.getConnectionUrl() + "/broker/poll")
+                    .queryParam("subscriberId", subscriberId)
+                    .queryParam("maxMessages", maxMessages)
+                    .queryParam("waitMs", waitMs);
+            if (ackCursor != null) {
+                location.queryParam("ack", ackCursor);
             }
+            DeferredResult<ResponseEntity<PollResult>> redirect = new DeferredResult<>();
+            redirect.setResult(ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT).location(location.encode().build().toUri()).build());
+            return redirect;
         }
-        return false;
+        String connectionUrl = PullConsumerManager.connectionUrl(subscriberId);
+        if (!isSubscriberValid(connectionUrl)) {
+            logger.warn("Invalid pull subscriber: {}", subscriberId);
+            DeferredResult<ResponseEntity<PollResult>> forbidden = new DeferredResult<>();
+            forbidden.setResult(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+            return forbidden;
+        }
+        return pullConsumers.poll(connectionUrl, maxMessages, waitMs, ackCursor);
+    }
+
+    public ResponseEntity<String> ackPoll(String subscriberId, String cursor) {
+        Broker leader = isLeader() ? null : clusterLeader();
+        if (leader != null) {
+            URI location = UriComponentsBuilder.fromHttpUrl(leader.getConnectionUrl() + "/broker/poll/ack")
+                    .queryParam("subscriberId", subscriberId)
+                    .queryParam("cursor", cursor)
+                    .encode().build().toUri();
+            return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT).location(location).body("Pull subscribers are served by broker " + leader.getId() + ".");
+        }
+        String connectionUrl = PullConsumerManager.connectionUrl(subscriberId);
+        if (!isSubscriberValid(connectionUrl)) {
+            logger.warn("Invalid pull subscriber: {}", subscriberId);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        pullConsumers.ack(connectionUrl, cursor);
+        return ResponseEntity.ok("Messages acked.");
     }
 
-    public ConcurrentHashMap<String, List<Subscriber>> getTopicsSubscriber() {
-        return this.topicsSubscriber;
+    public List<SubscriberQueueStats> getStreamStats() {
+        return streams.getStats();
     }
 
-    public ConcurrentLinkedQueue<Packet> getMessages() {
-        return this.messages;
+    public List<DispatchLaneStats> getDispatchLaneStats() {
+        return messages.getStats();
     }
 }
\ No newline at end of file
@@ -0,0 +1,510 @@
+package com.sportsnotification.broker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sportsnotification.dto.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+// Segmented append-only logs of packets on local disk, written through memory-mapped files, one
+// per partition in its own directory, so partitions append without contending for one another.
+// Each segment has a .log file of [length][offset][json] records and a .index file of
+// [offset][position] entries used to find an offset by binary search.
+@Profile("broker")
+@Component
+public class CommitLog {
+
+    public enum FsyncPolicy {
+        ALWAYS, // group commit: appends complete once the next fsync covering them finishes
+        INTERVAL, // fsync every fsync-interval-ms
+        NEVER // leave flushing to the OS
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(CommitLog.class);
+    private static final int RECORD_HEADER_BYTES = 12;
+    private static final int INDEX_ENTRY_BYTES = 12;
+    private static final String CHECKPOINT_FILE = "delivered.checkpoint";
+    private static final String PARTITION_PREFIX = "partition-";
+
+    private final ConcurrentHashMap<Integer, PartitionLog> partitions = new ConcurrentHashMap<>();
+    private final List<CompletableFuture<Void>> awaitingFlush = new ArrayList<>();
+    private final Set<PartitionLog> dirty = new LinkedHashSet<>(); // written since the last fsync
+    private final Object flushLock = new Object();
+    private Thread flusherThread;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PacketEncoder packetEncoder;
+
+    @Value("${broker.log.dir:data/broker-${server.port:8090}}")
+    private String logDir;
+
+    @Value("${broker.log.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${broker.log.retention-segments:16}")
+    private int retentionSegments;
+
+    @Value("${broker.log.fsync:INTERVAL}")
+    private FsyncPolicy fsyncPolicy;
+
+    @Value("${broker.log.fsync-interval-ms:200}")
+    private long fsyncIntervalMs;
+
+    @PostConstruct
+    public void open() throws IOException {
+        Path dir = Paths.get(logDir);
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(path -> Files.isDirectory(path) && path.getFileName().toString().startsWith(PARTITION_PREFIX))
+                    .forEach(path -> {
+                        try {
+                            int partition = Integer.parseInt(path.getFileName().toString().substring(PARTITION_PREFIX.length()));
+                            partitions.put(partition, new PartitionLog(partition, path));
+                        } catch (Exception e) {
+                            logger.error("Skipping unreadable partition log {}: {}", path, e.getMessage());
+                        }
+                    });
+        }
+        logger.info("Opened commit log at {} with {} partitions", dir.toAbsolutePath(), partitions.size());
+
+        flusherThread = new Thread(this::runFlusher, "commit-log-flusher");
+        flusherThread.setDaemon(true);
+        flusherThread.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (flusherThread != null) {
+            flusherThread.interrupt();
+        }
+        for (PartitionLog log : partitions.values()) {
+            log.close();
+            log.writeCheckpoint();
+        }
+    }
+
+    // Appends a packet whose partition and offset have already been assigned. The future completes
+    // once the record is as durable as the fsync policy promises.
+    public CompletableFuture<Void> append(Packet message) {
+        PartitionLog log;
+        try {
+            byte[] payload = packetEncoder.bytes(message);
+            if (RECORD_HEADER_BYTES + payload.length > segmentBytes) {
+                // Would not fit even an empty segment; rolling would only evict retained history
+                throw new IllegalArgumentException("Record of " + payload.length + " bytes exceeds the segment size of " + segmentBytes);
+            }
+            log = partition(message.getPartition());
+            if (!log.append(message.getOffset(), payload)) {
+                return CompletableFuture.completedFuture(null);
+            }
+        } catch (Exception e) {
+            logger.error("Error appending offset {} of partition {} to commit log: {}", message.getOffset(), message.getPartition(), e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+
+        synchronized (flushLock) {
+            dirty.add(log);
+            if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> flushed = new CompletableFuture<>();
+            awaitingFlush.add(flushed);
+            flushLock.notifyAll();
+            return flushed;
+        }
+    }
+
+    public List<Packet> read(int partition, long fromOffset, int max) {
+        PartitionLog log = partitions.get(partition);
+        return log != null ? log.read(fromOffset, max) : new ArrayList<>();
+    }
+
+    public Set<Integer> getPartitions() {
+        return new TreeSet<>(partitions.keySet());
+    }
+
+    public long getLogStartOffset(int partition) {
+        PartitionLog log = partitions.get(partition);
+        return log != null ? log.getLogStartOffset() : 1;
+    }
+
+    public long getLastOffset(int partition) {
+        PartitionLog log = partitions.get(partition);
+        return log != null ? log.lastOffset : 0;
+    }
+
+    public long getDeliveredOffset(int partition) {
+        PartitionLog log = partitions.get(partition);
+        return log != null ? log.deliveredOffset : 0;
+    }
+
+    // Persisted by the flusher so a restarted broker knows which entries still need delivering
+    public void setDeliveredOffset(int partition, long deliveredOffset) {
+        partition(partition).deliveredOffset = deliveredOffset;
+    }
+
+    private PartitionLog partition(int partition) {
+        return partitions.computeIfAbsent(partition, p -> {
+            try {
+                return new PartitionLog(p, Paths.get(logDir, PARTITION_PREFIX + p));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void runFlusher() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<PartitionLog> flushing;
+                List<CompletableFuture<Void>> flushed;
+                synchronized (flushLock) {
+                    if (awaitingFlush.isEmpty()) {
+                        flushLock.wait(fsyncIntervalMs);
+                    }
+                    if (dirty.isEmpty()) {
+                        writeCheckpoints();
+                        continue;
+                    }
+                    flushing = new ArrayList<>(dirty);
+                    dirty.clear();
+                    flushed = new ArrayList<>(awaitingFlush);
+                    awaitingFlush.clear();
+                }
+                // One fsync per written partition covers every append that arrived since the last one
+                if (fsyncPolicy != FsyncPolicy.NEVER) {
+                    for (PartitionLog log : flushing) {
+                        log.flush();
+                    }
+                }
+                for (CompletableFuture<Void> future : flushed) {
+                    future.complete(null);
+                }
+                writeCheckpoints();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("Error flushing commit log: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void writeCheckpoints() {
+        for (PartitionLog log : partitions.values()) {
+            log.writeCheckpoint();
+        }
+    }
+
+    private class PartitionLog {
+        private final int partition;
+        private final Path dir;
+        private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+        private Segment activeSegment;
+        private volatile long lastOffset = 0;
+        private volatile long deliveredOffset = 0;
+        private long checkpointedOffset = -1;
+
+        PartitionLog(int partition, Path dir) throws IOException {
+            this.partition = partition;
+            this.dir = dir;
+            Files.createDirectories(dir);
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(path -> path.getFileName().toString().endsWith(".log"))
+                        .sorted()
+                        .forEach(path -> {
+                            try {
+                                long baseOffset = Long.parseLong(path.getFileName().toString().replace(".log", ""));
+                                segments.put(baseOffset, Segment.open(dir, baseOffset, segmentBytes));
+                            } catch (Exception e) {
+                                logger.error("Skipping unreadable log segment {}: {}", path, e.getMessage());
+                            }
+                        });
+            }
+            if (!segments.isEmpty()) {
+                activeSegment = segments.lastEntry().getValue();
+                activeSegment.recover();
+                lastOffset = activeSegment.lastOffset;
+            }
+            deliveredOffset = readCheckpoint();
+            checkpointedOffset = deliveredOffset;
+            if (!segments.isEmpty()) {
+                logger.info("Opened partition {} with {} segments, offsets {} to {}, delivered up to {}",
+                        partition, segments.size(), getLogStartOffset(), lastOffset, deliveredOffset);
+            }
+        }
+
+        // False if the offset is already in the log
+        synchronized boolean append(long offset, byte[] payload) throws IOException {
+            if (offset <= lastOffset) {
+                return false;
+            }
+            if (activeSegment == null || !activeSegment.hasRoomFor(payload.length)) {
+                roll(offset);
+            }
+            activeSegment.append(offset, payload);
+            lastOffset = offset;
+            return true;
+        }
+
+        List<Packet> read(long fromOffset, int max) {
+            List<Packet> result = new ArrayList<>();
+            Map.Entry<Long, Segment> start = segments.floorEntry(fromOffset);
+            Long key = start != null ? start.getKey() : segments.isEmpty() ? null : segments.firstKey();
+            while (key != null && result.size() < max) {
+                Segment segment = segments.get(key);
+                if (segment != null) {
+                    for (byte[] payload : segment.read(fromOffset, max - result.size())) {
+                        try {
+                            Packet message = objectMapper.readValue(payload, Packet.class);
+                            packetEncoder.remember(message, payload);
+                            result.add(message);
+                        } catch (IOException e) {
+                            logger.error("Corrupt commit log record in partition {} segment {}: {}", partition, key, e.getMessage());
+                        }
+                    }
+                }
+                key = segments.higherKey(key);
+            }
+            return result;
+        }
+
+        long getLogStartOffset() {
+            return segments.isEmpty() ? lastOffset + 1 : segments.firstKey();
+        }
+
+        synchronized void flush() {
+            if (activeSegment != null) {
+                activeSegment.flush();
+            }
+        }
+
+        synchronized void close() {
+            for (Segment segment : segments.values()) {
+                segment.flush();
+                segment.close();
+            }
+        }
+
+        private void roll(long baseOffset) throws IOException {
+            if (activeSegment != null) {
+                activeSegment.flush();
+            }
+            activeSegment = Segment.create(dir, baseOffset, segmentBytes);
+            segments.put(baseOffset, activeSegment);
+            // A segment that still holds undelivered entries is kept past retention until they are delivered
+            while (segments.size() > retentionSegments && segments.firstEntry().getValue().lastOffset <= deliveredOffset) {
+                Segment oldest = segments.pollFirstEntry().getValue();
+                oldest.close();
+                oldest.delete();
+                logger.info("Deleted segment starting at offset {} of partition {}", oldest.baseOffset, partition);
+            }
+        }
+
+        synchronized void writeCheckpoint() {
+            long offset = deliveredOffset;
+            if (offset == checkpointedOffset) {
+                return;
+            }
+            try {
+                Path temp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+                Files.write(temp, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, dir.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                checkpointedOffset = offset;
+            } catch (IOException e) {
+                logger.error("Error writing delivered checkpoint of partition {}: {}", partition, e.getMessage());
+            }
+        }
+
+        private long readCheckpoint() {
+            try {
+                Path checkpoint = dir.resolve(CHECKPOINT_FILE);
+                if (Files.exists(checkpoint)) {
+                    return Long.parseLong(new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim());
+                }
+            } catch (Exception e) {
+                logger.error("Error reading delivered checkpoint of partition {}: {}", partition, e.getMessage());
+            }
+            return 0;
+        }
+    }
+
+    private static class Segment {
+        private final long baseOffset;
+        private final Path logPath;
+        private final Path indexPath;
+        private final FileChannel logChannel;
+        private final FileChannel indexChannel;
+        private final MappedByteBuffer log;
+        private final MappedByteBuffer index;
+        private volatile int writePosition = 0;
+        private volatile int indexEntries = 0;
+        private long lastOffset;
+
+        private Segment(Path dir, long baseOffset, int segmentBytes) throws IOException {
+            this.baseOffset = baseOffset;
+            this.lastOffset = baseOffset - 1;
+            this.logPath = dir.resolve(String.format("%020d.log", baseOffset));
+            this.indexPath = dir.resolve(String.format("%020d.index", baseOffset));
+            // Size the index for records averaging 64 bytes; the segment rolls early if it fills
+            int indexBytes = Math.max(INDEX_ENTRY_BYTES, segmentBytes / 64 * INDEX_ENTRY_BYTES);
+            this.logChannel = openChannel(logPath, segmentBytes);
+            this.indexChannel = openChannel(indexPath, indexBytes);
+            this.log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes);
+        }
+
+        static Segment create(Path dir, long baseOffset, int segmentBytes) throws IOException {
+            return new Segment(dir, baseOffset, segmentBytes);
+        }
+
+        static Segment open(Path dir, long baseOffset, int segmentBytes) throws IOException {
+            Segment segment = new Segment(dir, baseOffset, segmentBytes);
+            int entries = 0;
+            while ((entries + 1) * INDEX_ENTRY_BYTES <= segment.index.capacity() && segment.index.getLong(entries * INDEX_ENTRY_BYTES) != 0) {
+                entries++;
+            }
+            segment.indexEntries = entries;
+            if (entries > 0) {
+                int last = (entries - 1) * INDEX_ENTRY_BYTES;
+                int position = segment.index.getInt(last + 8);
+                segment.lastOffset = segment.index.getLong(last);
+                segment.writePosition = position + RECORD_HEADER_BYTES + segment.log.getInt(position);
+            }
+            return segment;
+        }
+
+        private static FileChannel openChannel(Path path, int size) throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                if (file.length() < size) {
+                    file.setLength(size);
+                }
+            }
+            return FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        // Rebuilds the index from the records, in case the broker stopped between the two writes
+        void recover() {
+            int position = 0;
+            int entries = 0;
+            long previous = baseOffset - 1;
+            while (position + RECORD_HEADER_BYTES <= log.capacity()) {
+                int length = log.getInt(position);
+                long offset = log.getLong(position + 4);
+                if (length <= 0 || position + RECORD_HEADER_BYTES + length > log.capacity() || offset <= previous
+                        || (entries + 1) * INDEX_ENTRY_BYTES > index.capacity()) {
+                    break;
+                }
+                index.putLong(entries * INDEX_ENTRY_BYTES, offset);
+                index.putInt(entries * INDEX_ENTRY_BYTES + 8, position);
+                entries++;
+                previous = offset;
+                position += RECORD_HEADER_BYTES + length;
+            }
+            for (int i = entries; (i + 1) * INDEX_ENTRY_BYTES <= index.capacity() && index.getLong(i * INDEX_ENTRY_BYTES) != 0; i++) {
+                index.putLong(i * INDEX_ENTRY_BYTES, 0);
+            }
+            indexEntries = entries;
+            writePosition = position;
+            lastOffset = previous;
+        }
+
+        boolean hasRoomFor(int payloadLength) {
+            return writePosition + RECORD_HEADER_BYTES + payloadLength <= log.capacity()
+                    && (indexEntries + 1) * INDEX_ENTRY_BYTES <= index.capacity();
+        }
+
+        void append(long offset, byte[] payload) {
+            int position = writePosition;
+            ByteBuffer writer = log.duplicate();
+            writer.position(position);
+            writer.putInt(payload.length);
+            writer.putLong(offset);
+            writer.put(payload);
+            index.putLong(indexEntries * INDEX_ENTRY_BYTES, offset);
+            index.putInt(indexEntries * INDEX_ENTRY_BYTES + 8, position);
+            lastOffset = offset;
+            writePosition = position + RECORD_HEADER_BYTES + payload.length;
+            indexEntries++;
+        }
+
+        List<byte[]> read(long fromOffset, int max) {
+            List<byte[]> payloads = new ArrayList<>();
+            int entries = indexEntries;
+            int low = 0;
+            int high = entries - 1;
+            int first = entries;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (index.getLong(mid * INDEX_ENTRY_BYTES) >= fromOffset) {
+                    first = mid;
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            ByteBuffer reader = log.duplicate();
+            for (int i = first; i < entries && payloads.size() < max; i++) {
+                int position = index.getInt(i * INDEX_ENTRY_BYTES + 8);
+                byte[] payload = new byte[reader.getInt(position)];
+                reader.position(position + RECORD_HEADER_BYTES);
+                reader.get(payload);
+                payloads.add(payload);
+            }
+            return payloads;
+        }
+
+        void flush() {
+            log.force();
+            index.force();
+        }
+
+        void close() {
+            try {
+                logChannel.close();
+                indexChannel.close();
+            } catch (IOException e) {
+                logger.error("Error closing log segment {}: {}", baseOffset, e.getMessage());
+            }
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(logPath);
+                Files.deleteIfExists(indexPath);
+            } catch (IOException e) {
+                logger.error("Error deleting log segment {}: {}", baseOffset, e.getMessage());
+            }
+        }
+    }
+}
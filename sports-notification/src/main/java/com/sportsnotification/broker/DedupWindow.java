@@ -0,0 +1,153 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Packet;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Remembers which message ids each producer has published, so retried (pid, mid) pairs are dropped.
+// Per producer and partition it keeps the highest mid and a bitmap of the window of mids below it, so
+// mids the producer spreads over partitions led by other brokers do not slide it; a mid older than
+// the window is treated as a duplicate. A producer that restarts its mids sends a higher epoch, which
+// starts a fresh window; packets from an older epoch are dropped. The least recently seen windows are evicted first.
+// Partition leaders and followers feed it from each partition's log, so the window survives failover and restarts.
+@Profile("broker")
+@Component
+public class DedupWindow {
+
+    private final Map<String, ProducerWindow> producers = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ProducerWindow> eldest) {
+            return size() > maxProducers;
+        }
+    };
+
+    private final int windowSize;
+    private final int maxProducers; // (producer, partition) windows kept
+
+    public DedupWindow(@Value("${broker.dedup.window:1024}") int windowSize,
+                       @Value("${broker.dedup.max-producers:10000}") int maxProducers) {
+        this.windowSize = windowSize;
+        this.maxProducers = maxProducers;
+    }
+
+    // Returns false if the packet repeats a (pid, mid) already seen; packets without both are always admitted
+    public synchronized boolean admit(Packet message) {
+        if (message.getPid() == null || message.getMid() == null) {
+            return true;
+        }
+        return producers.computeIfAbsent(keyOf(message), key -> new ProducerWindow(windowSize)).admit(epochOf(message), message.getMid());
+    }
+
+    // Undoes admit for a packet that was not stored after all, so its retry is not dropped
+    public synchronized void forget(Packet message) {
+        if (message.getPid() == null || message.getMid() == null) {
+            return;
+        }
+        ProducerWindow window = producers.get(keyOf(message));
+        if (window != null) {
+            window.forget(epochOf(message), message.getMid());
+        }
+    }
+
+    // Whether admit would drop the packet, without recording it
+    public synchronized boolean isDuplicate(Packet message) {
+        if (message.getPid() == null || message.getMid() == null) {
+            return false;
+        }
+        ProducerWindow window = producers.get(keyOf(message));
+        return window != null && window.contains(epochOf(message), message.getMid());
+    }
+
+    // The partition goes last, so no two (pid, partition) pairs share a key
+    private static String keyOf(Packet message) {
+        return message.getPid() + "#" + message.getPartition();
+    }
+
+    private static long epochOf(Packet message) {
+        return message.getEpoch() != null ? message.getEpoch() : 0;
+    }
+
+    public synchronized int size() {
+        return producers.size();
+    }
+
+    private static class ProducerWindow {
+        private final long[] seen;
+        private final int size;
+        private long epoch;
+        private long highest;
+        private boolean empty = true;
+
+        ProducerWindow(int size) {
+            this.size = Math.max(64, (size + 63) / 64 * 64);
+            this.seen = new long[this.size / 64];
+        }
+
+        boolean admit(long epoch, long mid) {
+            if (empty || epoch > this.epoch) {
+                this.epoch = epoch;
+                empty = true; // a new producer session restarts the mids
+            } else if (epoch < this.epoch) {
+                return false; // from a session the producer has since replaced
+            }
+            if (empty || mid > highest) {
+                if (empty || mid - highest >= size) {
+                    Arrays.fill(seen, 0L);
+                } else {
+                    for (long cleared = highest + 1; cleared < mid; cleared++) {
+                        clear(cleared);
+                    }
+                }
+                empty = false;
+                highest = mid;
+                set(mid);
+                return true;
+            }
+            if (mid <= highest - size) {
+                return false; // older than the window
+            }
+            if (isSet(mid)) {
+                return false;
+            }
+            set(mid);
+            return true;
+        }
+
+        boolean contains(long epoch, long mid) {
+            if (empty || epoch != this.epoch) {
+                return !empty && epoch < this.epoch;
+            }
+            return mid <= highest && (mid <= highest - size || isSet(mid));
+        }
+
+        void forget(long epoch, long mid) {
+            if (!empty && epoch == this.epoch && mid <= highest && mid > highest - size) {
+                clear(mid);
+            }
+        }
+
+        private int slot(long mid) {
+            return (int) Math.floorMod(mid, (long) size);
+        }
+
+        private boolean isSet(long mid) {
+            int slot = slot(mid);
+            return (seen[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        private void set(long mid) {
+            int slot = slot(mid);
+            seen[slot >>> 6] |= 1L << slot;
+        }
+
+        private void clear(long mid) {
+            int slot = slot(mid);
+            seen[slot >>> 6] &= ~(1L << slot);
+        }
+    }
+}
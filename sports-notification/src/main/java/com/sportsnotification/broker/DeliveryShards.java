@@ -0,0 +1,125 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Broker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Splits delivery across the live brokers. Callback subscribers are placed on a consistent-hash
+// ring of broker ids by connection URL, so every broker's dispatcher delivers only to its share and
+// a membership change only moves the subscribers of the brokers that joined or left. A WebSocket
+// subscriber belongs to the broker holding its socket, and a pull subscriber to the leader.
+@Profile("broker")
+@Component
+public class DeliveryShards {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryShards.class);
+
+    private volatile Ring ring = new Ring(Set.of(), 0);
+    private volatile Ring previous = ring;
+
+    @Autowired
+    @Lazy
+    private BrokerRegistration brokerRegistration;
+
+    @Value("${broker.sharding.virtual-nodes:128}")
+    private int virtualNodes;
+
+    // Rebuilds the ring from the live brokers; returns whether subscribers moved between brokers
+    public synchronized boolean update(List<Broker> brokers) {
+        Set<Integer> members = new TreeSet<>();
+        for (Broker broker : brokers) {
+            members.add(broker.getId());
+        }
+        if (members.equals(ring.members)) {
+            return false;
+        }
+        previous = ring;
+        ring = new Ring(members, virtualNodes);
+        logger.info("Delivery shards rebalanced across brokers {}", members);
+        return !previous.members.isEmpty();
+    }
+
+    public boolean owns(String connectionUrl) {
+        return isOwner(ring, connectionUrl);
+    }
+
+    // Owned by this broker since the last membership change, and by another broker before it
+    public boolean gained(String connectionUrl) {
+        return isOwner(ring, connectionUrl) && !isOwner(previous, connectionUrl);
+    }
+
+    private boolean isOwner(Ring ring, String connectionUrl) {
+        Broker current = brokerRegistration.getCurrentBroker();
+        if (ring.members.isEmpty() || current == null) {
+            return true; // no membership yet: this broker delivers everything
+        }
+        if (PullConsumerManager.isPullConnection(connectionUrl)) {
+            return current.isLeader();
+        }
+        Integer socketBroker = SubscriberWebSocketHandler.brokerOf(connectionUrl);
+        if (socketBroker != null) {
+            // The socket of a broker that left is dropped by the leader
+            return ring.members.contains(socketBroker) ? socketBroker == current.getId() : current.isLeader();
+        }
+        return ring.ownerOf(connectionUrl) == current.getId();
+    }
+
+    // FNV-1a with a final avalanche, so similar URLs spread over the ring
+    private static int hash(String key) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static class Ring {
+        private final Set<Integer> members;
+        private final int[] points;
+        private final int[] owners;
+
+        Ring(Set<Integer> members, int virtualNodes) {
+            this.members = members;
+            long[] entries = new long[members.size() * virtualNodes];
+            int i = 0;
+            for (int member : members) {
+                for (int v = 0; v < virtualNodes; v++) {
+                    // Point in the high half so sorting orders by point; ties broken by broker id
+                    entries[i++] = ((long) hash(member + "#" + v) << 32) | (member & 0xffffffffL);
+                }
+            }
+            Arrays.sort(entries);
+            points = new int[entries.length];
+            owners = new int[entries.length];
+            for (i = 0; i < entries.length; i++) {
+                points[i] = (int) (entries[i] >> 32);
+                owners[i] = (int) entries[i];
+            }
+        }
+
+        // The first point at or after the key's hash, wrapping around
+        int ownerOf(String key) {
+            int index = Arrays.binarySearch(points, hash(key));
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return owners[index == points.length ? 0 : index];
+        }
+    }
+}
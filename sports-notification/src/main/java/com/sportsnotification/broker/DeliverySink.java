@@ -0,0 +1,15 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Packet;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Where a SubscriberQueue sends its packets: a subscriber's HTTP callback or an open stream.
+// The future completes with false if the packets could not be delivered.
+public interface DeliverySink {
+
+    CompletableFuture<Boolean> deliver(Packet message);
+
+    CompletableFuture<Boolean> deliverBatch(List<Packet> messages);
+}
@@ -0,0 +1,376 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Packet;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// Compiles subscription filters such as
+//   type = 'score' and player in ('James', 'Davis') and not quarter < 4
+// into predicates over Packet fields (topic, message, pid, mid) and attributes.
+// Subscribers with the same filter share one predicate instance, so the dispatcher evaluates it once
+// per packet for all of them. Clauses are interned by their canonical form too, which only saves memory:
+// a clause shared by different filters is still evaluated once per filter. The cache keeps the most
+// recently used filters, so the ones in use stay compiled however many others come and go.
+@Profile("broker")
+@Component
+public class FilterCompiler {
+
+    private static final int MAX_CACHED_FILTERS = 10000;
+
+    private static final int MAX_INTERNED_CLAUSES = 50000;
+
+    private final Map<String, Predicate<Packet>> byExpression = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Predicate<Packet>> eldest) {
+            return size() > MAX_CACHED_FILTERS;
+        }
+    };
+    private final Map<String, Filter> interned = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Filter> eldest) {
+            return size() > MAX_INTERNED_CLAUSES;
+        }
+    };
+
+    // Returns null for a blank filter, which matches everything; throws IllegalArgumentException if invalid
+    public Predicate<Packet> compile(String expression) {
+        if (expression == null || expression.isBlank()) {
+            return null;
+        }
+        synchronized (byExpression) {
+            Predicate<Packet> cached = byExpression.get(expression);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Predicate<Packet> compiled = new Parser(expression).parse();
+        synchronized (byExpression) {
+            Predicate<Packet> existing = byExpression.putIfAbsent(expression, compiled);
+            return existing != null ? existing : compiled;
+        }
+    }
+
+    private Filter intern(Filter filter) {
+        synchronized (interned) {
+            Filter existing = interned.putIfAbsent(filter.toString(), filter);
+            return existing != null ? existing : filter;
+        }
+    }
+
+    private abstract static class Filter implements Predicate<Packet> {
+        private String canonical;
+
+        abstract String describe();
+
+        @Override
+        public String toString() {
+            if (canonical == null) {
+                canonical = describe();
+            }
+            return canonical;
+        }
+    }
+
+    private static class And extends Filter {
+        private final Filter left;
+        private final Filter right;
+
+        And(Filter left, Filter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        public boolean test(Packet packet) {
+            return left.test(packet) && right.test(packet);
+        }
+
+        String describe() {
+            return "(" + left + " and " + right + ")";
+        }
+    }
+
+    private static class Or extends Filter {
+        private final Filter left;
+        private final Filter right;
+
+        Or(Filter left, Filter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        public boolean test(Packet packet) {
+            return left.test(packet) || right.test(packet);
+        }
+
+        String describe() {
+            return "(" + left + " or " + right + ")";
+        }
+    }
+
+    private static class Not extends Filter {
+        private final Filter operand;
+
+        Not(Filter operand) {
+            this.operand = operand;
+        }
+
+        public boolean test(Packet packet) {
+            return !operand.test(packet);
+        }
+
+        String describe() {
+            return "not " + operand;
+        }
+    }
+
+    // field op value, or field in (values); a missing field never matches
+    private static class Comparison extends Filter {
+        private final String field;
+        private final String operator;
+        private final List<String> values;
+        private final Double[] numbers; // each value parsed as a number, null where it is not one
+        private final boolean numeric; // at least one value is a number
+
+        Comparison(String field, String operator, List<String> values) {
+            this.field = field;
+            this.operator = operator;
+            this.values = values;
+            this.numbers = new Double[values.size()];
+            boolean anyNumber = false;
+            for (int i = 0; i < values.size(); i++) {
+                numbers[i] = toNumber(values.get(i));
+                anyNumber |= numbers[i] != null;
+            }
+            this.numeric = anyNumber;
+        }
+
+        public boolean test(Packet packet) {
+            String actual = resolve(packet);
+            if (actual == null) {
+                return false;
+            }
+            // Numbers compare as numbers when both sides parse as one, so quarter = 1.0 matches "1"
+            Double actualNumber = numeric ? toNumber(actual) : null;
+            switch (operator) {
+                case "=":
+                    return matches(actual, actualNumber, 0);
+                case "!=":
+                    return !matches(actual, actualNumber, 0);
+                case "in":
+                    for (int i = 0; i < values.size(); i++) {
+                        if (matches(actual, actualNumber, i)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                default:
+                    int compared;
+                    if (actualNumber != null && numbers[0] != null) {
+                        compared = Double.compare(actualNumber, numbers[0]);
+                    } else {
+                        compared = actual.compareTo(values.get(0));
+                    }
+                    switch (operator) {
+                        case "<":
+                            return compared < 0;
+                        case "<=":
+                            return compared <= 0;
+                        case ">":
+                            return compared > 0;
+                        default:
+                            return compared >= 0;
+                    }
+            }
+        }
+
+        private boolean matches(String actual, Double actualNumber, int index) {
+            if (actualNumber != null && numbers[index] != null) {
+                return actualNumber.doubleValue() == numbers[index].doubleValue();
+            }
+            return actual.equals(values.get(index));
+        }
+
+        private String resolve(Packet packet) {
+            switch (field) {
+                case "topic":
+                    return packet.getTopic();
+                case "message":
+                    return packet.getMessage();
+                case "pid":
+                    return packet.getPid();
+                case "mid":
+                    return packet.getMid() == null ? null : String.valueOf(packet.getMid());
+                default:
+                    Map<String, String> attributes = packet.getAttributes();
+                    return attributes == null ? null : attributes.get(field);
+            }
+        }
+
+        private static Double toNumber(String value) {
+            if (value.isEmpty() || !(Character.isDigit(value.charAt(0)) || "+-.".indexOf(value.charAt(0)) >= 0)) {
+                return null; // not a number, and keeps "NaN" or "Infinity" strings comparing as text
+            }
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        String describe() {
+            if (operator.equals("in")) {
+                return field + " in ('" + String.join("', '", values) + "')";
+            }
+            return field + " " + operator + " '" + values.get(0) + "'";
+        }
+    }
+
+    // expression := or ; or := and ("or" and)* ; and := unary ("and" unary)*
+    // unary := "not" unary | "(" expression ")" | field op value | field "in" "(" value ("," value)* ")"
+    private class Parser {
+        private final String expression;
+        private final List<String> tokens;
+        private int position = 0;
+
+        Parser(String expression) {
+            this.expression = expression;
+            this.tokens = tokenize(expression);
+        }
+
+        Filter parse() {
+            Filter filter = parseOr();
+            if (position != tokens.size()) {
+                throw error("unexpected '" + tokens.get(position) + "'");
+            }
+            return filter;
+        }
+
+        private Filter parseOr() {
+            Filter filter = parseAnd();
+            while (accept("or") || accept("||")) {
+                filter = intern(new Or(filter, parseAnd()));
+            }
+            return filter;
+        }
+
+        private Filter parseAnd() {
+            Filter filter = parseUnary();
+            while (accept("and") || accept("&&")) {
+                filter = intern(new And(filter, parseUnary()));
+            }
+            return filter;
+        }
+
+        private Filter parseUnary() {
+            if (accept("not") || accept("!")) {
+                return intern(new Not(parseUnary()));
+            }
+            if (accept("(")) {
+                Filter filter = parseOr();
+                expect(")");
+                return filter;
+            }
+            String field = next();
+            if (field.startsWith("'") || !Character.isJavaIdentifierStart(field.charAt(0))) {
+                throw error("expected a field name but found '" + field + "'");
+            }
+            if (field.startsWith("attributes.")) {
+                field = field.substring("attributes.".length());
+            }
+            List<String> values = new ArrayList<>();
+            if (accept("in")) {
+                expect("(");
+                do {
+                    values.add(value(next()));
+                } while (accept(","));
+                expect(")");
+                return intern(new Comparison(field, "in", values));
+            }
+            String operator = next();
+            if (!List.of("=", "==", "!=", "<", "<=", ">", ">=").contains(operator)) {
+                throw error("unknown operator '" + operator + "'");
+            }
+            values.add(value(next()));
+            return intern(new Comparison(field, operator.equals("==") ? "=" : operator, values));
+        }
+
+        private String value(String token) {
+            if (token.startsWith("'")) {
+                return token.substring(1, token.length() - 1);
+            }
+            if (token.length() == 1 && "(),".contains(token)) {
+                throw error("expected a value but found '" + token + "'");
+            }
+            return token;
+        }
+
+        private boolean accept(String token) {
+            if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("expected '" + token + "'");
+            }
+        }
+
+        private String next() {
+            if (position >= tokens.size()) {
+                throw error("unexpected end of filter");
+            }
+            return tokens.get(position++);
+        }
+
+        private IllegalArgumentException error(String reason) {
+            return new IllegalArgumentException("Invalid filter '" + expression + "': " + reason);
+        }
+
+        // Quoted strings come back as 'text' with either quote style normalized to single quotes
+        private List<String> tokenize(String text) {
+            List<String> result = new ArrayList<>();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '\'' || c == '"') {
+                    int end = text.indexOf(c, i + 1);
+                    if (end < 0) {
+                        throw error("unterminated string");
+                    }
+                    result.add("'" + text.substring(i + 1, end) + "'");
+                    i = end + 1;
+                } else if ("(),".indexOf(c) >= 0) {
+                    result.add(String.valueOf(c));
+                    i++;
+                } else if ("=!<>&|".indexOf(c) >= 0) {
+                    int end = i + 1;
+                    while (end < text.length() && "=!<>&|".indexOf(text.charAt(end)) >= 0) {
+                        end++;
+                    }
+                    result.add(text.substring(i, end));
+                    i = end;
+                } else {
+                    int end = i;
+                    while (end < text.length() && !Character.isWhitespace(text.charAt(end))
+                            && "(),=!<>&|'\"".indexOf(text.charAt(end)) < 0) {
+                        end++;
+                    }
+                    result.add(text.substring(i, end));
+                    i = end;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -4,58 +4,224 @@ import com.sportsnotification.dto.Packet;
 import com.sportsnotification.dto.Subscriber;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.RestTemplate;
 
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class MessageProcessor implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(MessageProcessor.class);
 
-    @Autowired
     private final BrokerService brokerService;
-    private final RestTemplate restTemplate;
+    private final SubscriberQueueManager subscriberQueues;
+    private final FilterCompiler filterCompiler;
+    private final DeliveryShards shards;
+    private final ExecutorService workers;
+    // Bounds the packets handed to topic lanes, so a backlog waits in the priority queue where it can be reordered
+    private final Semaphore inFlight;
+    // One lane per topic: packets of a topic are delivered serially, different topics run in parallel
+    private final ConcurrentHashMap<String, TopicLane> lanes = new ConcurrentHashMap<>();
 
-    public MessageProcessor(BrokerService brokerService, RestTemplate restTemplate) {
+    public MessageProcessor(BrokerService brokerService, SubscriberQueueManager subscriberQueues, FilterCompiler filterCompiler,
+                            DeliveryShards shards, int workerThreads) {
         this.brokerService = brokerService;
-        this.restTemplate = restTemplate;
+        this.subscriberQueues = subscriberQueues;
+        this.filterCompiler = filterCompiler;
+        this.shards = shards;
+        this.inFlight = new Semaphore(workerThreads * 4);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "dispatch-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
     public void run() {
-        while (true) {
+        PriorityMessageQueue messages = brokerService.getMessagesQueue();
+        try {
+            // Until then this broker would drop the packets of the subscribers in its shard
+            brokerService.awaitSubscriptionState();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                inFlight.acquire();
+                Packet message;
+                try {
+                    message = messages.take();
+                } catch (InterruptedException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                lanes.computeIfAbsent(message.getTopic(), TopicLane::new).submit(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("Error dispatching messages: {}", e.getMessage(), e);
+            }
+        }
+        workers.shutdown();
+        logger.info("Message processor stopped.");
+    }
+
+    // Delivers entries this broker already dispatched to the subscribers it took over in a rebalance,
+    // since their previous owner may not have reached them; entries still queued here go to the new owners anyway
+    public void handOver(ReplicationLog replicationLog) {
+        Map<Integer, Long> offsets = new TreeMap<>();
+        Map<Integer, Long> ends = replicationLog.getLastOffsets();
+        for (int partition : ends.keySet()) {
+            offsets.put(partition, replicationLog.getClusterDeliveredOffset(partition));
+        }
+        workers.execute(() -> {
             try {
-                ConcurrentLinkedQueue<Packet> messages = brokerService.getMessagesQueue();
-                ConcurrentHashMap<String, List<Subscriber>> topicsSubscriber = brokerService.getTopicsSubscriberMap();
-
-                if (!messages.isEmpty()) {
-                    Packet message = messages.peek();
-                    logger.info("Processing message: {}", message.getMessage());
-                    List<Subscriber> subscribers = topicsSubscriber.get(message.getTopic());
-
-                    if (subscribers != null) {
-                        for (Subscriber subscriber : subscribers) {
-                            logger.info("Sending message to subscriber: {}", subscriber.getConnectionUrl());
-                            ResponseEntity<String> response = restTemplate.postForEntity(subscriber.getConnectionUrl() + "/subscriber/receive", message, String.class);
-
-                            if (response.getStatusCode().is2xxSuccessful()) {
-                                logger.info("Message sent successfully to: {}", subscriber.getConnectionUrl());
-                            } else {
-                                logger.warn("Failed to send message to: {} with status code: {}", subscriber.getConnectionUrl(), response.getStatusCode());
-                            }
-                        }
+                int handedOver = 0;
+                for (Map.Entry<Integer, Long> offset : offsets.entrySet()) {
+                    handedOver += replay(replicationLog, offset.getKey(), offset.getValue(), ends.get(offset.getKey()),
+                            message -> fanOut(message, message.getConflationKey() != null && brokerService.isConflated(message.getTopic()), shards::gained));
+                }
+                logger.info("Handed over {} messages after positions {} to newly owned subscribers.", handedOver, ReplicationLog.formatPositions(offsets));
+            } catch (Exception e) {
+                logger.error("Error handing over messages after positions {}: {}", ReplicationLog.formatPositions(offsets), e.getMessage(), e);
+            }
+        });
+    }
+
+    // On becoming leader this broker takes over the pull subscribers, whose unacked packets were buffered
+    // on the previous leader: redelivers what the log holds after each one's replicated cursor
+    public void handOverPull(ReplicationLog replicationLog, PullConsumerManager pullConsumers) {
+        Map<Integer, Long> fallbacks = new TreeMap<>();
+        Map<Integer, Long> ends = replicationLog.getLastOffsets();
+        for (int partition : ends.keySet()) {
+            fallbacks.put(partition, replicationLog.getClusterDeliveredOffset(partition));
+        }
+        workers.execute(() -> {
+            Map<Integer, Long> offsets = new TreeMap<>();
+            try {
+                int handedOver = 0;
+                for (Map.Entry<Integer, Long> fallback : fallbacks.entrySet()) {
+                    int partition = fallback.getKey();
+                    long offset = Math.max(pullConsumers.lowestCursor(partition, fallback.getValue()), replicationLog.getLogStartOffset(partition) - 1);
+                    offsets.put(partition, offset);
+                    handedOver += replay(replicationLog, partition, offset, ends.get(partition),
+                            message -> fanOut(message, message.getConflationKey() != null && brokerService.isConflated(message.getTopic()),
+                                    url -> PullConsumerManager.isPullConnection(url)
+                                            && message.getOffset() > pullConsumers.cursorOf(url, partition, fallback.getValue())));
+                }
+                logger.info("Handed over {} messages after positions {} to pull subscribers.", handedOver, ReplicationLog.formatPositions(offsets));
+            } catch (Exception e) {
+                logger.error("Error handing over messages after positions {} to pull subscribers: {}", ReplicationLog.formatPositions(offsets), e.getMessage(), e);
+            }
+        });
+    }
+
+    // Hands the partition's entries after the offset up to the end to the consumer, skipping the ones
+    // still queued here, which reach their subscribers through the dispatcher; returns how many it handed
+    private int replay(ReplicationLog replicationLog, int partition, long offset, long end, Consumer<Packet> handOver) {
+        long next = offset;
+        int handedOver = 0;
+        List<Packet> chunk;
+        while (next < end && !(chunk = replicationLog.entriesAfter(partition, next, 500)).isEmpty()) {
+            for (Packet message : chunk) {
+                if (message.getOffset() > end) {
+                    break;
+                }
+                if (!replicationLog.isPending(message)) {
+                    handOver.accept(message);
+                    handedOver++;
+                }
+            }
+            next = chunk.get(chunk.size() - 1).getOffset();
+        }
+        return handedOver;
+    }
+
+    private void deliver(Packet message) {
+        logger.info("Processing message: {}", message.getMessage());
+        boolean conflate = message.getConflationKey() != null && brokerService.isConflated(message.getTopic());
+        fanOut(message, conflate, shards::owns);
+        brokerService.getStreams().publish(message, conflate);
+        brokerService.markDelivered(message);
+    }
+
+    // Enqueues the packet for the matching subscribers in this broker's shard
+    private void fanOut(Packet message, boolean conflate, Predicate<String> owned) {
+        // Each distinct filter is evaluated once per packet, however many subscribers share it
+        Map<Predicate<Packet>, Boolean> verdicts = new IdentityHashMap<>();
+        Set<String> delivered = new HashSet<>();
+        for (Subscriber subscriber : brokerService.getSubscribersOf(message.getTopic())) {
+            if (!owned.test(subscriber.getConnectionUrl())) {
+                continue;
+            }
+            Predicate<Packet> filter = filterCompiler.compile(subscriber.getFilter());
+            if (filter != null && !verdicts.computeIfAbsent(filter, f -> f.test(message))) {
+                continue;
+            }
+            // Hand off to each subscriber's own queue so a slow endpoint only delays itself
+            if (delivered.add(subscriber.getConnectionUrl())) {
+                subscriberQueues.enqueue(subscriber, message, conflate);
+            }
+        }
+    }
+
+    private class TopicLane implements Runnable {
+        private final String topic;
+        private final Queue<Packet> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        TopicLane(String topic) {
+            this.topic = topic;
+        }
+
+        void submit(Packet message) {
+            pending.add(message);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Packet message;
+                while ((message = pending.poll()) != null) {
+                    try {
+                        deliver(message);
+                    } finally {
+                        inFlight.release();
                     }
-                    messages.poll();
-                    brokerService.replicateMessageToAllBrokers(messages);
                 }
-                Thread.sleep(1000);
+                // Report what this lane has delivered to the followers
+                brokerService.replicateMessageToAllBrokers();
             } catch (Exception e) {
-                logger.error("Error processing messages: {}", e.getMessage(), e);
+                logger.error("Error delivering messages for topic {}: {}", topic, e.getMessage(), e);
+            } finally {
+                scheduled.set(false);
+                // A packet may have arrived between the last poll and releasing the lane
+                if (!pending.isEmpty()) {
+                    schedule();
+                }
             }
         }
     }
-}
\ No newline at end of file
+}
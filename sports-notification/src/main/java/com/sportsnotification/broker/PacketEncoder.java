@@ -0,0 +1,42 @@
+package com.sportsnotification.broker;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sportsnotification.dto.Packet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+// Encodes each packet to JSON once and caches the result on the packet. The log appends it
+// after the offsets are assigned, so by the time the dispatcher fans the packet out, every
+// subscriber, stream and follower write reuses the same bytes instead of re-running Jackson.
+@Profile("broker")
+@Component
+public class PacketEncoder {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    public SerializedString encode(Packet message) throws JsonProcessingException {
+        SerializedString json = message.cachedJson();
+        if (json == null) {
+            // Two threads may race here; both produce the same encoding
+            json = new SerializedString(objectMapper.writeValueAsString(message));
+            message.cacheJson(json);
+        }
+        return json;
+    }
+
+    // The returned array is shared by every writer of this packet and must not be modified
+    public byte[] bytes(Packet message) throws JsonProcessingException {
+        return encode(message).asUnquotedUTF8();
+    }
+
+    // For packets decoded from bytes that are already their encoding, such as commit log records
+    public void remember(Packet message, byte[] payload) {
+        message.cacheJson(new SerializedString(new String(payload, StandardCharsets.UTF_8)));
+    }
+}
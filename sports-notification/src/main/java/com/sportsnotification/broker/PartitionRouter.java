@@ -0,0 +1,207 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Broker;
+import com.sportsnotification.dto.PartitionTable;
+import com.sportsnotification.dto.ReplicationBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// The coordinator's routing table: topics hash into partitions, and each partition has a leader
+// broker that takes its publishes and sequences its log. A broker that comes to lead a partition
+// first fetches what the previous leader appended, so the partition's offsets never fork; until a
+// table arrives no broker takes publishes.
+@Profile("broker")
+@Component
+public class PartitionRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionRouter.class);
+
+    private volatile PartitionTable table = new PartitionTable(0, 0, List.of());
+    private final Set<Integer> takingOver = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService handover = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "partition-handover");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    @Lazy
+    private BrokerRegistration brokerRegistration;
+
+    @Autowired
+    private ReplicationLog replicationLog;
+
+    @Autowired
+    private PriorityMessageQueue messages;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Value("${broker.partition.handover-retry-ms:500}")
+    private long retryMs;
+
+    @Value("${broker.partition.handover-max-retry-ms:10000}")
+    private long maxRetryMs;
+
+    // Ignores a table older than the one in use; returns whether it was applied. Partitions this
+    // broker no longer leads stop taking appends before this returns.
+    public synchronized boolean update(PartitionTable update) {
+        if (update == null || update.getLeaders() == null || update.getVersion() < table.getVersion()) {
+            return false;
+        }
+        PartitionTable previous = table;
+        table = update;
+        for (int partition : replicationLog.getSequencedPartitions()) {
+            if (!leads(partition)) {
+                replicationLog.stopSequencing(partition);
+                logger.info("Partition {} handed over to broker {}", partition, leaderId(update, partition));
+            }
+        }
+        for (int partition = 0; partition < update.getPartitionCount(); partition++) {
+            if (leads(partition) && !replicationLog.isSequencing(partition) && takingOver.add(partition)) {
+                int gained = partition;
+                handover.execute(() -> takeOver(gained, previousLeaders(previous, update, gained), update, 0));
+            }
+        }
+        logger.info("Routing table version {} with {} partitions applied", update.getVersion(), update.getPartitionCount());
+        return true;
+    }
+
+    public PartitionTable getTable() {
+        return table;
+    }
+
+    public static int partitionOf(String topic, int partitionCount) {
+        return Math.floorMod(topic.hashCode(), partitionCount);
+    }
+
+    public int partitionOf(String topic) {
+        return partitionOf(topic, Math.max(1, table.getPartitionCount()));
+    }
+
+    // The partition leader for the topic, or null while it has none
+    public Broker leaderOf(String topic) {
+        PartitionTable current = table;
+        if (current.getPartitionCount() <= 0 || current.getLeaders().size() < current.getPartitionCount()) {
+            return null;
+        }
+        return current.getLeaders().get(partitionOf(topic, current.getPartitionCount()));
+    }
+
+    public boolean leads(String topic) {
+        Broker leader = leaderOf(topic);
+        Broker currentBroker = brokerRegistration.getCurrentBroker();
+        return leader != null && currentBroker != null && leader.getId() == currentBroker.getId();
+    }
+
+    private boolean leads(int partition) {
+        PartitionTable current = table;
+        Broker currentBroker = brokerRegistration.getCurrentBroker();
+        return currentBroker != null && partition < current.getPartitionCount() && partition < current.getLeaders().size()
+                && current.getLeaders().get(partition) != null && current.getLeaders().get(partition).getId() == currentBroker.getId();
+    }
+
+    // The broker that led the partition under the previous table, unless it was this one. A broker
+    // that has just started does not know, so it asks every other leader in the new table.
+    private List<Broker> previousLeaders(PartitionTable previous, PartitionTable update, int partition) {
+        Broker currentBroker = brokerRegistration.getCurrentBroker();
+        Map<Integer, Broker> leaders = new LinkedHashMap<>();
+        if (previous.getVersion() == 0) {
+            for (Broker leader : update.getLeaders()) {
+                if (leader != null) {
+                    leaders.putIfAbsent(leader.getId(), leader);
+                }
+            }
+        } else if (partition < previous.getPartitionCount() && partition < previous.getLeaders().size()
+                && previous.getLeaders().get(partition) != null) {
+            Broker leader = previous.getLeaders().get(partition);
+            leaders.put(leader.getId(), leader);
+        }
+        if (currentBroker != null) {
+            leaders.remove(currentBroker.getId());
+        }
+        return new ArrayList<>(leaders.values());
+    }
+
+    private static Integer leaderId(PartitionTable table, int partition) {
+        Broker leader = partition < table.getLeaders().size() ? table.getLeaders().get(partition) : null;
+        return leader != null ? leader.getId() : null;
+    }
+
+    // Hands the previous leader the new table, which fences its appends, and applies what it holds beyond
+    // this broker's log before sequencing. An unreachable previous leader has failed, so what it did not
+    // replicate is lost either way; a 409 means it still leads under a newer table than ours, which retries.
+    // Any other error is retried with backoff, since the previous leader may still hold entries we lack.
+    private void takeOver(int partition, List<Broker> previousLeaders, PartitionTable update, int attempt) {
+        boolean retrying = false;
+        try {
+            if (!leads(partition)) {
+                return;
+            }
+            for (Broker previousLeader : previousLeaders) {
+                try {
+                    long held;
+                    long applied = -1;
+                    while ((held = replicationLog.getLastOffset(partition)) > applied) {
+                        applied = held;
+                        ReplicationBatch batch = restTemplate.postForObject(previousLeader.getConnectionUrl()
+                                + "/broker/handoverpartition?partition=" + partition + "&after=" + held, update, ReplicationBatch.class);
+                        if (batch == null || batch.getEntries() == null || batch.getEntries().isEmpty()) {
+                            break;
+                        }
+                        replicationLog.apply(batch, messages::add);
+                    }
+                } catch (HttpStatusCodeException e) {
+                    if (e.getStatusCode() == HttpStatus.CONFLICT) {
+                        logger.warn("Broker {} still leads partition {}, waiting for a newer table", previousLeader.getId(), partition);
+                        return;
+                    }
+                    long delay = Math.min(maxRetryMs, retryMs << Math.min(attempt, 16));
+                    logger.warn("Broker {} did not hand over partition {}: status {}, retrying in {} ms", previousLeader.getId(), partition,
+                            e.getRawStatusCode(), delay);
+                    retrying = true;
+                    // The table is read when the retry runs, so it goes out with the newest one
+                    handover.schedule(() -> takeOver(partition, previousLeaders, table, attempt + 1), delay, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (Exception e) {
+                    logger.warn("Broker {} unreachable for the handover of partition {}: {}", previousLeader.getId(), partition, e.getMessage());
+                }
+            }
+            synchronized (this) {
+                if (leads(partition)) {
+                    replicationLog.startSequencing(partition);
+                    logger.info("Sequencing partition {} from offset {}", partition, replicationLog.getLastOffset(partition));
+                }
+            }
+        } finally {
+            if (!retrying) {
+                synchronized (this) {
+                    takingOver.remove(partition);
+                    PartitionTable current = table;
+                    // A table that arrived meanwhile found the handover already running
+                    if (current != update && leads(partition) && !replicationLog.isSequencing(partition) && takingOver.add(partition)) {
+                        handover.execute(() -> takeOver(partition, previousLeaders, current, 0));
+                    }
+                }
+            }
+        }
+    }
+}
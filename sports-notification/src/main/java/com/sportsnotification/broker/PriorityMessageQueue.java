@@ -0,0 +1,241 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.DispatchLaneStats;
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.Priority;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The dispatcher's input queue. Packets of a topic stay in arrival order in a FIFO per topic, and
+// priority only decides which topic goes next: a topic waits in the lane of the highest priority
+// packet it has queued, so a high priority packet lifts the older packets of its topic along with it.
+// Lanes are served by smooth weighted round robin over the non-empty ones, and the topics in a lane
+// take turns. High priority gets most of the turns, but every lane with packets waiting gets its
+// share, so bulk traffic is never starved.
+@Profile("broker")
+@Component
+public class PriorityMessageQueue {
+
+    private static final Priority[] PRIORITIES = Priority.values(); // highest first
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final EnumMap<Priority, Lane> lanes = new EnumMap<>(Priority.class);
+    private final Map<String, TopicQueue> topics = new HashMap<>();
+    private int size = 0;
+
+    @Value("${broker.dispatch.weight.high:8}")
+    private int highWeight;
+
+    @Value("${broker.dispatch.weight.normal:4}")
+    private int normalWeight;
+
+    @Value("${broker.dispatch.weight.low:1}")
+    private int lowWeight;
+
+    @PostConstruct
+    public void init() {
+        lanes.put(Priority.HIGH, new Lane(Priority.HIGH, highWeight));
+        lanes.put(Priority.NORMAL, new Lane(Priority.NORMAL, normalWeight));
+        lanes.put(Priority.LOW, new Lane(Priority.LOW, lowWeight));
+    }
+
+    public void add(Packet message) {
+        lock.lock();
+        try {
+            offer(message);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void addAll(Collection<Packet> messages) {
+        lock.lock();
+        try {
+            for (Packet message : messages) {
+                offer(message);
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Packet take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            size--;
+            Lane lane = next();
+            TopicQueue queue = lane.topics.poll();
+            queue.lane = null;
+            Entry entry = queue.poll();
+            lanes.get(entry.priority).dispatched(entry);
+            if (queue.isEmpty()) {
+                topics.remove(queue.topic);
+            } else {
+                schedule(queue); // behind the other topics of its lane
+            }
+            if (lane.topics.isEmpty()) {
+                lane.current = 0; // an idle lane does not bank credit
+            }
+            return entry.message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<DispatchLaneStats> getStats() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            List<DispatchLaneStats> stats = new ArrayList<>();
+            for (Lane lane : lanes.values()) {
+                stats.add(lane.stats(now));
+            }
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void offer(Packet message) {
+        Entry entry = new Entry(message, message.getPriority() != null ? message.getPriority() : Priority.NORMAL);
+        TopicQueue queue = topics.computeIfAbsent(message.getTopic(), TopicQueue::new);
+        queue.offer(entry);
+        lanes.get(entry.priority).queued.add(entry);
+        schedule(queue);
+        size++;
+    }
+
+    // Moves the topic to the lane of its highest priority packet, unless it already waits there
+    private void schedule(TopicQueue queue) {
+        Priority target = queue.highest();
+        if (queue.lane == target) {
+            return;
+        }
+        if (queue.lane != null) {
+            lanes.get(queue.lane).topics.remove(queue);
+        }
+        lanes.get(target).topics.add(queue);
+        queue.lane = target;
+    }
+
+    // Smooth weighted round robin: interleaves lanes in proportion to their weights instead of in bursts
+    private Lane next() {
+        Lane selected = null;
+        int totalWeight = 0;
+        for (Lane lane : lanes.values()) {
+            if (lane.topics.isEmpty()) {
+                continue;
+            }
+            lane.current += lane.weight;
+            totalWeight += lane.weight;
+            if (selected == null || lane.current > selected.current) {
+                selected = lane;
+            }
+        }
+        selected.current -= totalWeight;
+        return selected;
+    }
+
+    private static class Entry {
+        private final Packet message;
+        private final Priority priority;
+        private final long enqueuedAt = System.nanoTime();
+
+        Entry(Packet message, Priority priority) {
+            this.message = message;
+            this.priority = priority;
+        }
+    }
+
+    private static class TopicQueue {
+        private final String topic;
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private final int[] counts = new int[PRIORITIES.length]; // queued packets per priority
+        private Priority lane; // the lane the topic waits in
+
+        TopicQueue(String topic) {
+            this.topic = topic;
+        }
+
+        void offer(Entry entry) {
+            entries.add(entry);
+            counts[entry.priority.ordinal()]++;
+        }
+
+        Entry poll() {
+            Entry entry = entries.poll();
+            counts[entry.priority.ordinal()]--;
+            return entry;
+        }
+
+        boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        Priority highest() {
+            for (Priority priority : PRIORITIES) {
+                if (counts[priority.ordinal()] > 0) {
+                    return priority;
+                }
+            }
+            return Priority.NORMAL;
+        }
+    }
+
+    // Topics waiting at this priority, and the stats of the packets sent with it
+    private static class Lane {
+        private final Priority priority;
+        private final int weight;
+        private final ArrayDeque<TopicQueue> topics = new ArrayDeque<>();
+        private final LinkedHashSet<Entry> queued = new LinkedHashSet<>(); // oldest first
+        private int current = 0;
+        private long dispatched = 0;
+        private long totalWaitNanos = 0;
+
+        Lane(Priority priority, int weight) {
+            this.priority = priority;
+            this.weight = Math.max(1, weight);
+        }
+
+        void dispatched(Entry entry) {
+            queued.remove(entry);
+            totalWaitNanos += System.nanoTime() - entry.enqueuedAt;
+            dispatched++;
+        }
+
+        DispatchLaneStats stats(long now) {
+            long oldestWaitMs = queued.isEmpty() ? 0 : TimeUnit.NANOSECONDS.toMillis(now - queued.iterator().next().enqueuedAt);
+            double averageWaitMs = dispatched == 0 ? 0 : totalWaitNanos / (double) dispatched / 1_000_000;
+            return new DispatchLaneStats(priority, weight, queued.size(), oldestWaitMs, averageWaitMs, dispatched);
+        }
+    }
+}
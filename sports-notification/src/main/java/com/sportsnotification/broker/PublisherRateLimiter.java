@@ -0,0 +1,187 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.PublisherQuota;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-publisher rate and burst quotas, keyed by publisher id (the pid on published packets).
+// Each bucket is a GCRA token bucket: a single theoretical arrival time advanced with compare-and-set,
+// so the publish path never takes a lock. Publishers without their own quota get the default one, in
+// a bucket of their own while fewer than max-publishers have one and in a shared overflow bucket after.
+@Profile("broker")
+@Component
+public class PublisherRateLimiter {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Bucket> defaultBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime() - SWEEP_INTERVAL_NANOS);
+    private volatile Bucket overflow;
+
+    @Value("${broker.ratelimit.default-rate:0}")
+    private double defaultRate;
+
+    @Value("${broker.ratelimit.default-burst:100}")
+    private int defaultBurst;
+
+    @Value("${broker.ratelimit.max-publishers:100000}")
+    private int maxPublishers;
+
+    // Returns 0 if the publish is within quota, otherwise the nanoseconds until it would be
+    public long acquire(String publisherId) {
+        if (publisherId == null) {
+            return 0;
+        }
+        Bucket bucket = bucketOf(publisherId);
+        return bucket != null ? bucket.acquire(System.nanoTime()) : 0;
+    }
+
+    // Gives back the token taken by acquire, for a publish that was dropped after all (a duplicate)
+    public void refund(String publisherId) {
+        Bucket bucket = publisherId != null ? bucketOf(publisherId) : null;
+        if (bucket != null) {
+            bucket.refund();
+        }
+    }
+
+    private Bucket bucketOf(String publisherId) {
+        Bucket bucket = buckets.get(publisherId);
+        if (bucket == null) {
+            bucket = defaultBuckets.get(publisherId);
+        }
+        if (bucket != null || defaultRate <= 0) {
+            return bucket;
+        }
+        if (defaultBuckets.size() >= maxPublishers && !sweep()) {
+            return overflow();
+        }
+        return defaultBuckets.computeIfAbsent(publisherId, id -> new Bucket(new Quota(defaultRate, defaultBurst)));
+    }
+
+    // Drops default buckets that have refilled, which lose nothing by being recreated. Runs at most
+    // once a second, so a table full of busy publishers is not rescanned for every new one.
+    private boolean sweep() {
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last >= SWEEP_INTERVAL_NANOS && lastSweep.compareAndSet(last, now)) {
+            defaultBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+        return defaultBuckets.size() < maxPublishers;
+    }
+
+    private Bucket overflow() {
+        Bucket current = overflow;
+        if (current == null || current.quota.rate != defaultRate || current.quota.burst != Math.max(1, defaultBurst)) {
+            current = new Bucket(new Quota(defaultRate, defaultBurst));
+            overflow = current;
+        }
+        return current;
+    }
+
+    // A rate of 0 or less removes the limit
+    public void setQuota(String publisherId, Double rate, Integer burst) {
+        Quota quota = new Quota(rate != null ? rate : defaultRate, burst != null ? burst : defaultBurst);
+        buckets.compute(publisherId, (id, existing) -> {
+            Bucket bucket = existing != null ? existing : defaultBuckets.remove(id); // keeps its counters
+            if (bucket == null) {
+                return new Bucket(quota);
+            }
+            bucket.quota = quota;
+            return bucket;
+        });
+    }
+
+    public List<PublisherQuota> getQuotas() {
+        List<PublisherQuota> quotas = new ArrayList<>();
+        buckets.forEach((id, bucket) -> quotas.add(new PublisherQuota(id, bucket.quota.rate, bucket.quota.burst,
+                bucket.admitted.sum(), bucket.throttled.sum())));
+        defaultBuckets.forEach((id, bucket) -> quotas.add(new PublisherQuota(id, bucket.quota.rate, bucket.quota.burst,
+                bucket.admitted.sum(), bucket.throttled.sum())));
+        return quotas;
+    }
+
+    // Follower side: applies the leader's configured quotas, keeping local counters
+    public void replaceQuotas(List<PublisherQuota> quotas) {
+        List<String> ids = new ArrayList<>();
+        for (PublisherQuota quota : quotas) {
+            ids.add(quota.getPublisherId());
+            setQuota(quota.getPublisherId(), quota.getRate(), quota.getBurst());
+        }
+        buckets.keySet().removeIf(id -> !ids.contains(id));
+    }
+
+    public List<PublisherQuota> getConfiguredQuotas() {
+        List<PublisherQuota> quotas = new ArrayList<>();
+        buckets.forEach((id, bucket) -> quotas.add(new PublisherQuota(id, bucket.quota.rate, bucket.quota.burst, 0, 0)));
+        return quotas;
+    }
+
+    private static class Quota {
+        private final double rate;
+        private final int burst;
+        private final long intervalNanos; // time to earn one token
+        private final long toleranceNanos; // how far ahead of real time the bucket may run
+
+        Quota(double rate, int burst) {
+            this.rate = rate;
+            this.burst = Math.max(1, burst);
+            this.intervalNanos = rate > 0 ? (long) (1_000_000_000L / rate) : 0;
+            this.toleranceNanos = intervalNanos * this.burst;
+        }
+    }
+
+    private static class Bucket {
+        private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+        private volatile Quota quota;
+
+        Bucket(Quota quota) {
+            this.quota = quota;
+        }
+
+        long acquire(long now) {
+            Quota current = quota;
+            if (current.intervalNanos == 0) {
+                admitted.increment();
+                return 0;
+            }
+            while (true) {
+                long arrival = theoreticalArrival.get();
+                long next = (arrival == Long.MIN_VALUE || arrival - now < 0 ? now : arrival) + current.intervalNanos;
+                long ahead = next - now;
+                if (ahead > current.toleranceNanos) {
+                    throttled.increment();
+                    return ahead - current.toleranceNanos;
+                }
+                if (theoreticalArrival.compareAndSet(arrival, next)) {
+                    admitted.increment();
+                    return 0;
+                }
+            }
+        }
+
+        void refund() {
+            long interval = quota.intervalNanos;
+            if (interval > 0) {
+                theoreticalArrival.accumulateAndGet(interval, (arrival, step) -> arrival == Long.MIN_VALUE ? arrival : arrival - step);
+                admitted.decrement();
+            }
+        }
+
+        // Back to a full burst, so dropping the bucket and making a fresh one changes nothing
+        boolean isFull(long now) {
+            long arrival = theoreticalArrival.get();
+            return arrival == Long.MIN_VALUE || arrival - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.PollResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Pull delivery for subscribers that cannot receive callbacks. A pull subscriber registers and
+// subscribes with connection URL pull:<subscriberId>; its queue delivers into a bounded buffer here,
+// and polls read from the buffer after the subscriber's acked cursor. The cursor holds the log
+// position of the last acked packet of each partition, and the leader replicates it, so a new leader
+// redelivers from the log after it. An empty poll is parked as a DeferredResult, so no servlet thread waits for data. While
+// the buffer is full, deliveries wait, and packets back up in the subscriber's queue under its overflow policy.
+@Profile("broker")
+@Component
+public class PullConsumerManager {
+
+    public static final String CONNECTION_SCHEME = "pull:";
+
+    private final ConcurrentHashMap<String, PullConsumer> consumers = new ConcurrentHashMap<>();
+    private final AtomicBoolean cursorsChanged = new AtomicBoolean(false);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pull-cursor-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    private ReplicationPipeline replicationPipeline;
+
+    @Value("${broker.poll.buffer-size:1000}")
+    private int bufferSize;
+
+    @Value("${broker.poll.max-messages:500}")
+    private int maxMessagesLimit;
+
+    @Value("${broker.poll.max-wait-ms:30000}")
+    private long maxWaitMs;
+
+    @Value("${broker.poll.cursor-sync-ms:1000}")
+    private long cursorSyncMs;
+
+    @PostConstruct
+    public void init() {
+        scheduler.scheduleWithFixedDelay(this::replicateCursors, cursorSyncMs, cursorSyncMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static String connectionUrl(String subscriberId) {
+        return CONNECTION_SCHEME + subscriberId;
+    }
+
+    public static boolean isPullConnection(String connectionUrl) {
+        return connectionUrl != null && connectionUrl.startsWith(CONNECTION_SCHEME);
+    }
+
+    public DeliverySink sinkFor(String connectionUrl) {
+        return consumer(connectionUrl);
+    }
+
+    public void remove(String connectionUrl) {
+        PullConsumer consumer = consumers.remove(connectionUrl);
+        if (consumer != null) {
+            consumer.close();
+        }
+    }
+
+    public void ack(String connectionUrl, String cursor) {
+        consumer(connectionUrl).ack(ReplicationLog.parsePositions(cursor), true);
+    }
+
+    // Follower side: the cursors the leader's pull subscribers have acked, not replicated any further
+    public void updateCursors(Map<String, String> cursors) {
+        cursors.forEach((connectionUrl, cursor) -> consumer(connectionUrl).ack(ReplicationLog.parsePositions(cursor), false));
+    }
+
+    public Map<String, String> getCursors() {
+        Map<String, String> cursors = new HashMap<>();
+        consumers.forEach((connectionUrl, consumer) -> {
+            Map<Integer, Long> acked = consumer.getAckedPositions();
+            if (!acked.isEmpty()) {
+                cursors.put(connectionUrl, ReplicationLog.formatPositions(acked));
+            }
+        });
+        return cursors;
+    }
+
+    // The acked offset of a pull subscriber in the partition, or the fallback if this broker has none for it
+    public long cursorOf(String connectionUrl, int partition, long fallback) {
+        PullConsumer consumer = consumers.get(connectionUrl);
+        Long cursor = consumer != null ? consumer.getAckedPositions().get(partition) : null;
+        return cursor != null ? cursor : fallback;
+    }
+
+    public long lowestCursor(int partition, long fallback) {
+        long lowest = fallback;
+        for (PullConsumer consumer : consumers.values()) {
+            Long cursor = consumer.getAckedPositions().get(partition);
+            if (cursor != null) {
+                lowest = Math.min(lowest, cursor);
+            }
+        }
+        return lowest;
+    }
+
+    // Only acks made here mark the cursors changed, so only the leader serving the pull subscribers sends them
+    private void replicateCursors() {
+        if (cursorsChanged.getAndSet(false)) {
+            replicationPipeline.broadcast("/broker/replicatepullcursors", getCursors());
+        }
+    }
+
+    // Acks everything up to ackCursor when given, then answers with the messages after the cursor,
+    // immediately if there are any, otherwise once some arrive or waitMs runs out
+    public DeferredResult<ResponseEntity<PollResult>> poll(String connectionUrl, int maxMessages, long waitMs, String ackCursor) {
+        long wait = Math.max(0, Math.min(waitMs, maxWaitMs));
+        int max = Math.max(1, Math.min(maxMessages, maxMessagesLimit));
+        Map<Integer, Long> acked = ReplicationLog.parsePositions(ackCursor);
+        PullConsumer consumer = consumer(connectionUrl);
+        consumer.ack(acked, true);
+
+        DeferredResult<ResponseEntity<PollResult>> result = new DeferredResult<>(wait);
+        Waiter waiter = new Waiter(result, max);
+        result.onTimeout(() -> {
+            consumer.removeWaiter(waiter);
+            result.setResult(ResponseEntity.ok(consumer.read(max)));
+        });
+        result.onCompletion(() -> consumer.removeWaiter(waiter));
+        consumer.pollOrWait(waiter, wait);
+        return result;
+    }
+
+    private PullConsumer consumer(String connectionUrl) {
+        return consumers.computeIfAbsent(connectionUrl, url -> new PullConsumer());
+    }
+
+    private static class Waiter {
+        private final DeferredResult<ResponseEntity<PollResult>> result;
+        private final int maxMessages;
+
+        Waiter(DeferredResult<ResponseEntity<PollResult>> result, int maxMessages) {
+            this.result = result;
+            this.maxMessages = maxMessages;
+        }
+    }
+
+    private class PullConsumer implements DeliverySink {
+        // Keyed by partition and log offset, so packets redelivered by a takeover fall in place and are not repeated
+        private final TreeMap<Integer, TreeMap<Long, Packet>> buffer = new TreeMap<>();
+        private int buffered = 0;
+        private final List<Waiter> waiters = new ArrayList<>();
+        private final Map<Integer, Long> ackedPositions = new TreeMap<>(); // last acked offset of each partition
+        // A delivery waiting for room in the buffer; the subscriber queue sends one at a time
+        private List<Packet> parked;
+        private CompletableFuture<Boolean> parkedResult;
+        private boolean closed = false;
+
+        @Override
+        public CompletableFuture<Boolean> deliver(Packet message) {
+            return deliverBatch(List.of(message));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> deliverBatch(List<Packet> messages) {
+            List<Waiter> ready;
+            synchronized (this) {
+                if (closed) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                if (buffered + messages.size() > bufferSize && buffered > 0) {
+                    parked = messages;
+                    parkedResult = new CompletableFuture<>();
+                    return parkedResult;
+                }
+                buffer(messages);
+                ready = new ArrayList<>(waiters);
+                waiters.clear();
+            }
+            answer(ready);
+            return CompletableFuture.completedFuture(true);
+        }
+
+        private void buffer(List<Packet> messages) {
+            for (Packet message : messages) {
+                if (message.getPartition() != null && message.getOffset() != null
+                        && message.getOffset() > ackedPositions.getOrDefault(message.getPartition(), 0L)
+                        && buffer.computeIfAbsent(message.getPartition(), p -> new TreeMap<>()).put(message.getOffset(), message) == null) {
+                    buffered++;
+                }
+            }
+        }
+
+        // Takes from the partitions in turn, so a busy one does not hold back the others; the cursor
+        // covers what was read, with the acked positions of the partitions nothing was read from
+        synchronized PollResult read(int max) {
+            List<Packet> messages = new ArrayList<>(Math.min(max, buffered));
+            Map<Integer, Long> cursor = new TreeMap<>(ackedPositions);
+            List<Iterator<Packet>> partitions = new ArrayList<>();
+            for (TreeMap<Long, Packet> partition : buffer.values()) {
+                partitions.add(partition.values().iterator());
+            }
+            while (!partitions.isEmpty() && messages.size() < max) {
+                Iterator<Iterator<Packet>> next = partitions.iterator();
+                while (next.hasNext() && messages.size() < max) {
+                    Iterator<Packet> partition = next.next();
+                    if (!partition.hasNext()) {
+                        next.remove();
+                        continue;
+                    }
+                    Packet message = partition.next();
+                    messages.add(message);
+                    cursor.put(message.getPartition(), message.getOffset());
+                }
+            }
+            return new PollResult(messages, ReplicationLog.formatPositions(cursor));
+        }
+
+        synchronized Map<Integer, Long> getAckedPositions() {
+            return new TreeMap<>(ackedPositions);
+        }
+
+        void ack(Map<Integer, Long> positions, boolean replicate) {
+            CompletableFuture<Boolean> resumed = null;
+            List<Waiter> ready = null;
+            synchronized (this) {
+                positions.forEach((partition, offset) -> {
+                    TreeMap<Long, Packet> partitionBuffer = buffer.get(partition);
+                    if (partitionBuffer != null) {
+                        Map<Long, Packet> acked = partitionBuffer.headMap(offset, true);
+                        buffered -= acked.size();
+                        acked.clear();
+                        if (partitionBuffer.isEmpty()) {
+                            buffer.remove(partition);
+                        }
+                    }
+                    if (offset > ackedPositions.getOrDefault(partition, 0L)) {
+                        ackedPositions.put(partition, offset);
+                        if (replicate) {
+                            cursorsChanged.set(true);
+                        }
+                    }
+                });
+                if (parked != null && buffered + parked.size() <= bufferSize) {
+                    buffer(parked);
+                    resumed = parkedResult;
+                    parked = null;
+                    parkedResult = null;
+                    ready = new ArrayList<>(waiters);
+                    waiters.clear();
+                }
+            }
+            if (resumed != null) {
+                answer(ready);
+                resumed.complete(true);
+            }
+        }
+
+        void pollOrWait(Waiter waiter, long waitMs) {
+            synchronized (this) {
+                if (buffered == 0 && waitMs > 0 && !closed) {
+                    waiters.add(waiter);
+                    return;
+                }
+            }
+            waiter.result.setResult(ResponseEntity.ok(read(waiter.maxMessages)));
+        }
+
+        synchronized void removeWaiter(Waiter waiter) {
+            waiters.remove(waiter);
+        }
+
+        void close() {
+            List<Waiter> ready;
+            synchronized (this) {
+                closed = true;
+                buffer.clear();
+                buffered = 0;
+                if (parkedResult != null) {
+                    parkedResult.complete(false);
+                }
+                parked = null;
+                parkedResult = null;
+                ready = new ArrayList<>(waiters);
+                waiters.clear();
+            }
+            answer(ready);
+        }
+
+        private void answer(List<Waiter> ready) {
+            for (Waiter waiter : ready) {
+                waiter.result.setResult(ResponseEntity.ok(read(waiter.maxMessages)));
+            }
+        }
+    }
+}
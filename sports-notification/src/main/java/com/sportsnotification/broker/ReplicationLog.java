@@ -0,0 +1,364 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.ReplicationBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+// Packets keyed by offset within their partition, backed by the commit log. Every partition has its
+// own offset sequence: the broker leading it appends and assigns the offsets, the others apply its
+// deltas in offset order. Every broker delivers its own shard of each packet, so packets this broker
+// has not dispatched yet and a window of recent ones stay in memory, older ones are read back from
+// the commit log.
+@Profile("broker")
+@Component
+public class ReplicationLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationLog.class);
+
+    private final ConcurrentHashMap<Integer, Partition> partitions = new ConcurrentHashMap<>();
+
+    @Autowired
+    private CommitLog commitLog;
+
+    @Autowired
+    private TopicHistory topicHistory;
+
+    @Autowired
+    private DedupWindow dedupWindow;
+
+    @Value("${broker.replication.recent-entries:10000}")
+    private int recentEntries;
+
+    @PostConstruct
+    public void restore() {
+        for (int partition : commitLog.getPartitions()) {
+            partition(partition).restore();
+        }
+    }
+
+    // Positions in the log, one offset per partition, written as partition:offset pairs such as "0:15,3:220"
+    public static String formatPositions(Map<Integer, Long> positions) {
+        StringBuilder formatted = new StringBuilder();
+        for (Map.Entry<Integer, Long> position : new TreeMap<>(positions).entrySet()) {
+            if (formatted.length() > 0) {
+                formatted.append(',');
+            }
+            formatted.append(position.getKey()).append(':').append(position.getValue());
+        }
+        return formatted.toString();
+    }
+
+    public static Map<Integer, Long> parsePositions(String formatted) {
+        Map<Integer, Long> positions = new TreeMap<>();
+        if (formatted == null || formatted.isBlank()) {
+            return positions;
+        }
+        for (String pair : formatted.split(",")) {
+            int separator = pair.indexOf(':');
+            try {
+                positions.merge(Integer.parseInt(pair.substring(0, separator).trim()), Long.parseLong(pair.substring(separator + 1).trim()), Math::max);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid log position: " + pair);
+            }
+        }
+        return positions;
+    }
+
+    // Appends packets under consecutive offsets of their partitions and hands each partition's packets
+    // to dispatch under its lock, so concurrent publishes reach the dispatcher in offset order. Appends
+    // nothing unless this broker sequences every partition involved. The future completes once all are durable.
+    public CompletableFuture<Void> appendAll(List<Packet> messages, Consumer<List<Packet>> dispatch) {
+        Map<Integer, List<Packet>> byPartition = new TreeMap<>();
+        for (Packet message : messages) {
+            byPartition.computeIfAbsent(message.getPartition(), p -> new ArrayList<>()).add(message);
+        }
+        List<Partition> locked = new ArrayList<>();
+        for (int partition : byPartition.keySet()) {
+            locked.add(partition(partition));
+        }
+        List<CompletableFuture<Void>> stored = new ArrayList<>(messages.size());
+        appendLocked(locked, 0, () -> {
+            for (Partition partition : locked) {
+                if (!partition.sequencing) {
+                    throw new IllegalStateException("Partition " + partition.id + " is not sequenced by this broker");
+                }
+            }
+            for (Partition partition : locked) {
+                List<Packet> appended = byPartition.get(partition.id);
+                for (Packet message : appended) {
+                    stored.add(partition.append(message));
+                }
+                dispatch.accept(appended);
+            }
+        });
+        return CompletableFuture.allOf(stored.toArray(new CompletableFuture<?>[0]));
+    }
+
+    // Takes the partition locks in ascending order, so concurrent batches cannot deadlock
+    private void appendLocked(List<Partition> locked, int next, Runnable append) {
+        if (next == locked.size()) {
+            append.run();
+            return;
+        }
+        synchronized (locked.get(next)) {
+            appendLocked(locked, next + 1, append);
+        }
+    }
+
+    // Once this broker leads the partition and holds what its previous leader appended
+    public void startSequencing(int partition) {
+        Partition log = partition(partition);
+        synchronized (log) {
+            log.sequencing = true;
+        }
+    }
+
+    // Returns once the appends in progress are done, so none lands after the partition is handed over
+    public void stopSequencing(int partition) {
+        Partition log = partitions.get(partition);
+        if (log != null) {
+            synchronized (log) {
+                log.sequencing = false;
+            }
+        }
+    }
+
+    public boolean isSequencing(int partition) {
+        Partition log = partitions.get(partition);
+        return log != null && log.sequencing;
+    }
+
+    public Set<Integer> getSequencedPartitions() {
+        Set<Integer> sequenced = new TreeSet<>();
+        partitions.forEach((partition, log) -> {
+            if (log.sequencing) {
+                sequenced.add(partition);
+            }
+        });
+        return sequenced;
+    }
+
+    public Set<Integer> getPartitions() {
+        return new TreeSet<>(partitions.keySet());
+    }
+
+    public void markDelivered(Packet message) {
+        if (message.getPartition() != null && message.getOffset() != null) {
+            partition(message.getPartition()).markDelivered(message.getOffset());
+        }
+    }
+
+    // This broker has delivered its shard of everything below the oldest undispatched entry
+    public long getDeliveredOffset(int partition) {
+        Partition log = partitions.get(partition);
+        return log != null ? log.getDeliveredOffset() : 0;
+    }
+
+    public long getClusterDeliveredOffset(int partition) {
+        Partition log = partitions.get(partition);
+        return log != null ? log.getClusterDeliveredOffset() : 0;
+    }
+
+    // Leader side: the lowest progress reported across the brokers
+    public void setClusterDeliveredOffset(int partition, long offset) {
+        partition(partition).setClusterDeliveredOffset(offset);
+    }
+
+    public long getLastOffset(int partition) {
+        Partition log = partitions.get(partition);
+        return log != null ? log.getLastOffset() : 0;
+    }
+
+    public Map<Integer, Long> getLastOffsets() {
+        Map<Integer, Long> lastOffsets = new TreeMap<>();
+        partitions.forEach((partition, log) -> lastOffsets.put(partition, log.getLastOffset()));
+        return lastOffsets;
+    }
+
+    public boolean isPending(Packet message) {
+        Partition log = partitions.get(message.getPartition());
+        return log != null && log.pending.containsKey(message.getOffset());
+    }
+
+    public long getLogStartOffset(int partition) {
+        return commitLog.getLogStartOffset(partition);
+    }
+
+    public List<Packet> entriesAfter(int partition, long offset, int max) {
+        Partition log = partitions.get(partition);
+        return log != null ? log.entriesAfter(offset, max) : new ArrayList<>();
+    }
+
+    // The entries after the offset with the partition's watermarks, as a follower would be sent them
+    public ReplicationBatch batchAfter(int partition, long offset, int max) {
+        return new ReplicationBatch(partition, entriesAfter(partition, offset, max), getClusterDeliveredOffset(partition), getLogStartOffset(partition));
+    }
+
+    public List<Packet> pendingEntries() {
+        List<Packet> entries = new ArrayList<>();
+        for (Partition log : partitions.values()) {
+            entries.addAll(log.pending.values());
+        }
+        return entries;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Partition log : partitions.values()) {
+            size += log.pending.size();
+        }
+        return size;
+    }
+
+    // Follower side: appends the partition's entries in offset order, hands the ones not yet delivered
+    // by every broker to dispatch, and returns the offset up to which the partition is complete here
+    public long apply(ReplicationBatch batch, Consumer<Packet> dispatch) {
+        return partition(batch.getPartition()).apply(batch, dispatch);
+    }
+
+    private Partition partition(int partition) {
+        return partitions.computeIfAbsent(partition, Partition::new);
+    }
+
+    private class Partition {
+        private final int id;
+        private final ConcurrentSkipListMap<Long, Packet> pending = new ConcurrentSkipListMap<>();
+        private final ConcurrentSkipListMap<Long, Packet> recent = new ConcurrentSkipListMap<>();
+        private final TreeMap<Long, Packet> outOfOrder = new TreeMap<>();
+        private long lastOffset = 0;
+        private long clusterDeliveredOffset = 0; // every broker has delivered its shard up to here
+        private volatile boolean sequencing = false;
+
+        Partition(int id) {
+            this.id = id;
+        }
+
+        synchronized void restore() {
+            lastOffset = commitLog.getLastOffset(id);
+            clusterDeliveredOffset = commitLog.getDeliveredOffset(id);
+            // Rebuild topic offsets and history from the retained log, and keep what is still undelivered
+            long offset = commitLog.getLogStartOffset(id) - 1;
+            List<Packet> chunk;
+            while (!(chunk = commitLog.read(id, offset + 1, 10000)).isEmpty()) {
+                for (Packet message : chunk) {
+                    topicHistory.record(message);
+                    dedupWindow.admit(message);
+                    if (message.getOffset() > clusterDeliveredOffset) {
+                        pending.put(message.getOffset(), message);
+                    }
+                    offset = message.getOffset();
+                }
+            }
+            if (!pending.isEmpty()) {
+                logger.info("Restored {} undelivered messages of partition {} from the commit log.", pending.size(), id);
+            }
+        }
+
+        // Assigns the next offset and writes the packet to the commit log
+        synchronized CompletableFuture<Void> append(Packet message) {
+            message.setOffset(++lastOffset);
+            topicHistory.assign(message);
+            pending.put(message.getOffset(), message);
+            remember(message);
+            return commitLog.append(message);
+        }
+
+        void markDelivered(long offset) {
+            pending.remove(offset);
+            commitLog.setDeliveredOffset(id, getDeliveredOffset());
+        }
+
+        synchronized long getDeliveredOffset() {
+            Map.Entry<Long, Packet> oldest = pending.firstEntry();
+            return oldest == null ? lastOffset : oldest.getKey() - 1;
+        }
+
+        synchronized long getClusterDeliveredOffset() {
+            return clusterDeliveredOffset;
+        }
+
+        synchronized void setClusterDeliveredOffset(long offset) {
+            clusterDeliveredOffset = Math.max(clusterDeliveredOffset, Math.min(offset, lastOffset));
+        }
+
+        synchronized long getLastOffset() {
+            return lastOffset;
+        }
+
+        List<Packet> entriesAfter(long offset, int max) {
+            if (!recent.isEmpty() && offset + 1 >= recent.firstKey()) {
+                List<Packet> entries = new ArrayList<>();
+                for (Packet message : recent.tailMap(offset, false).values()) {
+                    if (entries.size() >= max) {
+                        break;
+                    }
+                    entries.add(message);
+                }
+                return entries;
+            }
+            // Catching up from before the in-memory window
+            return commitLog.read(id, offset + 1, max);
+        }
+
+        synchronized long apply(ReplicationBatch batch, Consumer<Packet> dispatch) {
+            if (sequencing) {
+                // Only this broker assigns the partition's offsets; entries from a deposed leader would fork them
+                logger.warn("Ignoring replicated entries of partition {}, which this broker sequences", id);
+                return lastOffset;
+            }
+            clusterDeliveredOffset = Math.max(clusterDeliveredOffset, batch.getDeliveredOffset());
+            if (batch.getLogStartOffset() - 1 > lastOffset) {
+                // The leader no longer has what we are missing; continue from its oldest entry
+                lastOffset = batch.getLogStartOffset() - 1;
+            }
+            if (batch.getEntries() != null) {
+                for (Packet message : batch.getEntries()) {
+                    if (message.getOffset() != null && message.getOffset() > lastOffset) {
+                        outOfOrder.put(message.getOffset(), message);
+                    }
+                }
+            }
+            outOfOrder.headMap(lastOffset, true).clear();
+            Packet next;
+            while ((next = outOfOrder.remove(lastOffset + 1)) != null) {
+                lastOffset = next.getOffset();
+                commitLog.append(next);
+                topicHistory.record(next);
+                dedupWindow.admit(next); // so this broker can keep dropping retries if it comes to lead the partition
+                remember(next);
+                if (next.getOffset() > clusterDeliveredOffset) {
+                    pending.put(next.getOffset(), next);
+                    dispatch.accept(next);
+                }
+            }
+            // Delivered everywhere, so also by this broker, e.g. entries it caught up on after joining
+            pending.headMap(clusterDeliveredOffset, true).clear();
+            commitLog.setDeliveredOffset(id, getDeliveredOffset());
+            return lastOffset;
+        }
+
+        private void remember(Packet message) {
+            recent.put(message.getOffset(), message);
+            while (recent.firstKey() <= message.getOffset() - recentEntries) {
+                recent.pollFirstEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.sportsnotification.broker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sportsnotification.config.BinaryCodec;
+import com.sportsnotification.dto.AckPolicy;
+import com.sportsnotification.dto.Broker;
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.ReplicationAck;
+import com.sportsnotification.dto.ReplicationBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+// Replicates to all followers concurrently. Every broker replicates the partitions it sequences to
+// all the others; each partition's entries are pipelined with several batches in flight per follower,
+// replaying from the commit log for a follower that is far behind. Other state is sent in order per
+// follower, without blocking the caller. Acks carry each follower's delivery progress, which the
+// partition's leader folds into the watermark it sends back.
+@Profile("broker")
+@Component
+public class ReplicationPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationPipeline.class);
+
+    private final ConcurrentHashMap<Integer, FollowerReplicator> followers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replication-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    private ReplicationLog replicationLog;
+
+    @Autowired
+    private HttpClient httpClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private BinaryCodec binaryCodec;
+
+    @Value("${wire.binary.enabled:true}")
+    private boolean binaryEnabled;
+
+    @Value("${broker.replication.max-batch:500}")
+    private int maxBatch;
+
+    @Value("${broker.replication.max-in-flight:4}")
+    private int maxInFlight;
+
+    @Value("${broker.replication.timeout-ms:5000}")
+    private long timeoutMs;
+
+    @Value("${broker.replication.retry-ms:1000}")
+    private long retryMs;
+
+    @Value("${broker.replication.progress-interval-ms:1000}")
+    private long progressIntervalMs;
+
+    @PostConstruct
+    public void init() {
+        // Asks followers that were still delivering for their progress, even when nothing new is replicated
+        retryScheduler.scheduleWithFixedDelay(this::replicateLog, progressIntervalMs, progressIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean hasFollower(Broker broker) {
+        return followers.containsKey(broker.getId());
+    }
+
+    // Returns the brokers that were not followers before
+    public List<Broker> updateFollowers(List<Broker> brokers) {
+        List<Integer> followerIds = new ArrayList<>();
+        List<Broker> added = new ArrayList<>();
+        for (Broker broker : brokers) {
+            followerIds.add(broker.getId());
+            if (!followers.containsKey(broker.getId())) {
+                followers.put(broker.getId(), new FollowerReplicator(broker));
+                added.add(broker);
+            }
+        }
+        followers.keySet().removeIf(id -> !followerIds.contains(id));
+        return added;
+    }
+
+    // Pushes new entries and the delivered watermarks of the partitions this broker sequences to every follower
+    public void replicateLog() {
+        Set<Integer> sequenced = replicationLog.getSequencedPartitions();
+        for (FollowerReplicator follower : followers.values()) {
+            follower.pump(sequenced);
+        }
+    }
+
+    // The offset of the partition up to which this broker and every follower have delivered their shards
+    public long clusterDeliveredOffset(int partition) {
+        long delivered = replicationLog.getDeliveredOffset(partition);
+        for (FollowerReplicator follower : followers.values()) {
+            delivered = Math.min(delivered, follower.deliveredOffset(partition));
+        }
+        replicationLog.setClusterDeliveredOffset(partition, delivered);
+        return replicationLog.getClusterDeliveredOffset(partition);
+    }
+
+    // Completes once enough followers hold every entry of the partition up to the offset for the given policy
+    public CompletableFuture<Void> awaitReplication(int partition, long offset, AckPolicy ackPolicy) {
+        List<FollowerReplicator> current = new ArrayList<>(followers.values());
+        int required;
+        switch (ackPolicy) {
+            case ALL:
+                required = current.size();
+                break;
+            case MAJORITY:
+                required = (current.size() + 1) / 2; // the leader counts towards the majority
+                break;
+            default:
+                required = 0;
+        }
+        if (required == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        AtomicInteger acked = new AtomicInteger();
+        for (FollowerReplicator follower : current) {
+            FollowerReplicator.PartitionReplicator replicator = follower.partition(partition);
+            CompletableFuture<Void> waiter = replicator.awaitAck(offset);
+            waiter.thenRun(() -> {
+                if (acked.incrementAndGet() == required) {
+                    result.complete(null);
+                }
+            });
+            // A caller that gives up cancels the result, which must not leave the waiter behind until the follower acks
+            result.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    replicator.cancelAck(offset, waiter);
+                }
+            });
+        }
+        return result;
+    }
+
+    // Sends a full state snapshot to every follower; sends to one follower keep their order
+    public void broadcast(String path, Object body) {
+        broadcast(path, body, null);
+    }
+
+    // As above, handing each follower's response to the callback (null if the request failed)
+    public void broadcast(String path, Object body, BiConsumer<Broker, HttpResponse<byte[]>> onResponse) {
+        try {
+            Payload payload = encode(body);
+            for (FollowerReplicator follower : followers.values()) {
+                follower.sendInOrder(path, payload, onResponse);
+            }
+        } catch (Exception e) {
+            logger.error("Error replicating {} to all brokers: {}", path, e.getMessage());
+        }
+    }
+
+    // Sends to one follower, ordered with the broadcasts to it
+    public void send(Broker broker, String path, Object body, BiConsumer<Broker, HttpResponse<byte[]>> onResponse) {
+        FollowerReplicator follower = followers.get(broker.getId());
+        if (follower == null) {
+            return;
+        }
+        try {
+            follower.sendInOrder(path, encode(body), onResponse);
+        } catch (Exception e) {
+            logger.error("Error replicating {} to broker {}: {}", path, broker.getId(), e.getMessage());
+        }
+    }
+
+    // Reads a follower's response body in whichever format it answered with
+    public <T> T decode(HttpResponse<byte[]> response, Class<T> type) throws IOException {
+        String contentType = response.headers().firstValue("Content-Type").orElse("");
+        if (contentType.startsWith(BinaryCodec.CONTENT_TYPE)) {
+            return binaryCodec.decode(response.body(), type);
+        }
+        return objectMapper.readValue(response.body(), type);
+    }
+
+    // Binary when enabled and the body has a binary encoding, JSON otherwise
+    private Payload encode(Object body) throws IOException {
+        if (binaryEnabled && binaryCodec.canEncode(body)) {
+            return new Payload(binaryCodec.encode(body), BinaryCodec.CONTENT_TYPE);
+        }
+        return new Payload(objectMapper.writeValueAsBytes(body), "application/json");
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> post(Broker broker, String path, Payload payload) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(broker.getConnectionUrl() + path))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .header("Content-Type", payload.contentType)
+                .header("Accept", binaryEnabled ? BinaryCodec.CONTENT_TYPE + ", application/json" : "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload.bytes))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static class Payload {
+        private final byte[] bytes;
+        private final String contentType;
+
+        Payload(byte[] bytes, String contentType) {
+            this.bytes = bytes;
+            this.contentType = contentType;
+        }
+    }
+
+    private class FollowerReplicator {
+        private final Broker broker;
+        private final ConcurrentHashMap<Integer, PartitionReplicator> partitions = new ConcurrentHashMap<>();
+        private CompletableFuture<Void> controlTail = CompletableFuture.completedFuture(null);
+
+        FollowerReplicator(Broker broker) {
+            this.broker = broker;
+        }
+
+        // Drops the progress of partitions this broker no longer sequences; a later leader starts over
+        void pump(Set<Integer> sequenced) {
+            partitions.keySet().retainAll(sequenced);
+            for (int partition : sequenced) {
+                partition(partition).pump();
+            }
+        }
+
+        PartitionReplicator partition(int partition) {
+            return partitions.computeIfAbsent(partition, PartitionReplicator::new);
+        }
+
+        long deliveredOffset(int partition) {
+            PartitionReplicator replicator = partitions.get(partition);
+            return replicator != null ? replicator.deliveredOffset : replicationLog.getClusterDeliveredOffset(partition);
+        }
+
+        synchronized void sendInOrder(String path, Payload payload, BiConsumer<Broker, HttpResponse<byte[]>> onResponse) {
+            controlTail = controlTail.thenCompose(previous -> post(broker, path, payload)
+                    .handle((response, error) -> {
+                        // A 409 is an answer the callback handles, such as a follower reporting a gap
+                        if (error != null || (response.statusCode() / 100 != 2 && response.statusCode() != 409)) {
+                            logger.error("Error replicating {} to broker {}: {}", path, broker.getId(),
+                                    error != null ? error.getMessage() : "status " + response.statusCode());
+                        }
+                        if (onResponse != null) {
+                            try {
+                                onResponse.accept(broker, error != null ? null : response);
+                            } catch (Exception e) {
+                                logger.error("Error handling reply to {} from broker {}: {}", path, broker.getId(), e.getMessage());
+                            }
+                        }
+                        return null;
+                    }));
+        }
+
+        // The follower's progress on one partition that this broker sequences
+        private class PartitionReplicator {
+            private final int partition;
+            private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> waiters = new ConcurrentSkipListMap<>();
+            private long ackedOffset = 0;
+            private long sentOffset = 0;
+            private long sentDeliveredOffset = -1;
+            private long sentNanos = 0;
+            // Everything up to here was delivered before this follower took a shard, or by the follower itself
+            private volatile long deliveredOffset;
+            private int inFlight = 0;
+            private boolean retryScheduled = false;
+
+            PartitionReplicator(int partition) {
+                this.partition = partition;
+                this.deliveredOffset = replicationLog.getClusterDeliveredOffset(partition);
+            }
+
+            void pump() {
+                synchronized (this) {
+                    while (inFlight < maxInFlight && !retryScheduled) {
+                        long clusterDelivered = clusterDeliveredOffset(partition);
+                        List<Packet> entries = replicationLog.entriesAfter(partition, sentOffset, maxBatch);
+                        boolean polling = deliveredOffset < ackedOffset
+                                && System.nanoTime() - sentNanos >= TimeUnit.MILLISECONDS.toNanos(progressIntervalMs);
+                        if (entries.isEmpty() && clusterDelivered == sentDeliveredOffset && !polling) {
+                            return;
+                        }
+                        if (!entries.isEmpty()) {
+                            sentOffset = entries.get(entries.size() - 1).getOffset();
+                        }
+                        sentDeliveredOffset = clusterDelivered;
+                        sentNanos = System.nanoTime();
+                        inFlight++;
+                        sendBatch(new ReplicationBatch(partition, entries, clusterDelivered, replicationLog.getLogStartOffset(partition)));
+                    }
+                }
+            }
+
+            CompletableFuture<Void> awaitAck(long offset) {
+                CompletableFuture<Void> waiter = waiters.computeIfAbsent(offset, o -> new CompletableFuture<>());
+                synchronized (this) {
+                    if (ackedOffset >= offset) {
+                        waiters.remove(offset);
+                        waiter.complete(null);
+                    }
+                }
+                return waiter;
+            }
+
+            void cancelAck(long offset, CompletableFuture<Void> waiter) {
+                waiters.remove(offset, waiter);
+                waiter.cancel(false);
+            }
+
+            private void sendBatch(ReplicationBatch batch) {
+                try {
+                    post(broker, "/broker/replicatelog", encode(batch))
+                            .whenComplete((response, error) -> {
+                                if (error != null || response.statusCode() / 100 != 2) {
+                                    logger.error("Error replicating partition {} to broker {}: {}", partition, broker.getId(),
+                                            error != null ? error.getMessage() : "status " + response.statusCode());
+                                    onFailure();
+                                    return;
+                                }
+                                try {
+                                    onAck(decode(response, ReplicationAck.class));
+                                } catch (Exception e) {
+                                    logger.error("Invalid replication ack from broker {}: {}", broker.getId(), e.getMessage());
+                                    onFailure();
+                                }
+                            });
+                } catch (Exception e) {
+                    logger.error("Error replicating partition {} to broker {}: {}", partition, broker.getId(), e.getMessage());
+                    onFailure();
+                }
+            }
+
+            private void onAck(ReplicationAck ack) {
+                long acked;
+                synchronized (this) {
+                    inFlight--;
+                    ackedOffset = Math.max(ackedOffset, ack.getAckedOffset());
+                    deliveredOffset = Math.max(deliveredOffset, ack.getDeliveredOffset());
+                    if (inFlight == 0 && ackedOffset < sentOffset) {
+                        // The follower has a gap: resend from what it confirmed
+                        sentOffset = ackedOffset;
+                    }
+                    // A restarted follower may already hold more than we sent it
+                    sentOffset = Math.max(sentOffset, ackedOffset);
+                    acked = ackedOffset;
+                }
+                Map<Long, CompletableFuture<Void>> done = waiters.headMap(acked, true);
+                for (CompletableFuture<Void> waiter : done.values()) {
+                    waiter.complete(null);
+                }
+                done.clear();
+                pump();
+            }
+
+            private void onFailure() {
+                synchronized (this) {
+                    inFlight--;
+                    sentOffset = ackedOffset;
+                    sentDeliveredOffset = -1;
+                    if (retryScheduled) {
+                        return;
+                    }
+                    retryScheduled = true;
+                }
+                retryScheduler.schedule(() -> {
+                    synchronized (this) {
+                        retryScheduled = false;
+                    }
+                    pump();
+                }, retryMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.sportsnotification.broker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.Subscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@Profile("broker")
+@Component
+public class SubscriberDeliveryClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriberDeliveryClient.class);
+
+    @Autowired
+    private HttpClient httpClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PacketEncoder packetEncoder;
+
+    @Value("${broker.delivery.timeout-ms:5000}")
+    private long deliveryTimeoutMs;
+
+    public CompletableFuture<Boolean> deliver(Subscriber subscriber, Packet message) {
+        return post(subscriber, "/subscriber/receive", message, 1);
+    }
+
+    public CompletableFuture<Boolean> deliverBatch(Subscriber subscriber, List<Packet> messages) {
+        return post(subscriber, "/subscriber/receive-batch", messages, messages.size());
+    }
+
+    // Delivery to the subscriber's callback endpoints
+    public DeliverySink sinkFor(Subscriber subscriber) {
+        return new DeliverySink() {
+            @Override
+            public CompletableFuture<Boolean> deliver(Packet message) {
+                return SubscriberDeliveryClient.this.deliver(subscriber, message);
+            }
+
+            @Override
+            public CompletableFuture<Boolean> deliverBatch(List<Packet> messages) {
+                return SubscriberDeliveryClient.this.deliverBatch(subscriber, messages);
+            }
+        };
+    }
+
+    private CompletableFuture<Boolean> post(Subscriber subscriber, String path, Object body, int count) {
+        try {
+            // A single packet goes out as its cached encoding; a batch embeds each packet's cached encoding
+            byte[] payload = body instanceof Packet ? packetEncoder.bytes((Packet) body) : objectMapper.writeValueAsBytes(body);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(subscriber.getConnectionUrl() + path))
+                    .timeout(Duration.ofMillis(deliveryTimeoutMs))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(payload))
+                    .build();
+
+            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .handle((response, error) -> {
+                        if (error != null) {
+                            logger.warn("Failed to send {} message(s) to: {}: {}", count, subscriber.getConnectionUrl(), error.getMessage());
+                            return false;
+                        }
+                        if (response.statusCode() / 100 == 2) {
+                            logger.info("{} message(s) sent successfully to: {}", count, subscriber.getConnectionUrl());
+                            return true;
+                        }
+                        logger.warn("Failed to send {} message(s) to: {} with status code: {}", count, subscriber.getConnectionUrl(), response.statusCode());
+                        return false;
+                    });
+        } catch (Exception e) {
+            logger.warn("Failed to send {} message(s) to: {}: {}", count, subscriber.getConnectionUrl(), e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.OverflowPolicy;
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.Subscriber;
+import com.sportsnotification.dto.SubscriberQueueStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class SubscriberQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriberQueue.class);
+
+    private final Subscriber subscriber;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final long lingerMs;
+    private final DeliverySink sink;
+    private final ScheduledExecutorService scheduler;
+    private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+    // Queued entries that newer packets with the same topic and conflation key overwrite in place
+    private final HashMap<String, Entry> conflatable = new HashMap<>();
+    private boolean sending = false;
+    private boolean closed = false;
+    private boolean lingerScheduled = false;
+    private boolean lingerExpired = false;
+    private long dropped = 0;
+    private long conflated = 0;
+
+    // A batchSize above 1 switches the queue to batched delivery
+    public SubscriberQueue(Subscriber subscriber, int capacity, OverflowPolicy overflowPolicy, int batchSize, long lingerMs,
+                           DeliverySink sink, ScheduledExecutorService scheduler) {
+        this.subscriber = subscriber;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+        this.sink = sink;
+        this.scheduler = scheduler;
+    }
+
+    // Returns false when the queue overflowed under the DISCONNECT policy and the subscriber should be dropped.
+    // With conflate set, a queued packet with the same topic and conflation key is replaced instead.
+    public boolean offer(Packet message, boolean conflate) {
+        synchronized (this) {
+            if (closed) {
+                return true;
+            }
+            String key = conflate && message.getConflationKey() != null ? message.getTopic() + "\n" + message.getConflationKey() : null;
+            if (key != null) {
+                Entry queued = conflatable.get(key);
+                if (queued != null) {
+                    queued.message = message;
+                    conflated++;
+                    return true;
+                }
+            }
+            if (pending.size() >= capacity) {
+                switch (overflowPolicy) {
+                    case DISCONNECT:
+                        logger.warn("Queue full for subscriber: {}, disconnecting.", subscriber.getConnectionUrl());
+                        close();
+                        return false;
+                    case CONFLATE:
+                        if (!removeOldestOnTopic(message.getTopic())) {
+                            poll();
+                        }
+                        break;
+                    default:
+                        poll();
+                        break;
+                }
+                dropped++;
+            }
+            Entry entry = new Entry(message, key);
+            pending.add(entry);
+            if (key != null) {
+                conflatable.put(key, entry);
+            }
+        }
+        drain();
+        return true;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        dropped += pending.size();
+        pending.clear();
+        conflatable.clear();
+    }
+
+    public synchronized SubscriberQueueStats getStats() {
+        return new SubscriberQueueStats(subscriber.getConnectionUrl(), pending.size(), capacity, dropped, conflated, overflowPolicy);
+    }
+
+    // Sends one packet (or one batch) at a time so the subscriber sees them in order; the next
+    // send is chained on the completion of the previous one instead of parking a thread
+    private void drain() {
+        while (true) {
+            List<Packet> next;
+            synchronized (this) {
+                if (sending || closed || pending.isEmpty()) {
+                    return;
+                }
+                if (batchSize > 1 && pending.size() < batchSize && !lingerExpired) {
+                    // Wait up to the linger time for a fuller batch
+                    if (!lingerScheduled) {
+                        lingerScheduled = true;
+                        scheduler.schedule(this::lingerElapsed, lingerMs, TimeUnit.MILLISECONDS);
+                    }
+                    return;
+                }
+                next = new ArrayList<>(Math.min(pending.size(), batchSize));
+                while (next.size() < batchSize && !pending.isEmpty()) {
+                    next.add(poll());
+                }
+                lingerExpired = false;
+                sending = true;
+            }
+
+            CompletableFuture<Boolean> delivery = batchSize > 1
+                    ? sink.deliverBatch(next)
+                    : sink.deliver(next.get(0));
+            if (!delivery.isDone()) {
+                delivery.whenComplete((delivered, error) -> {
+                    synchronized (this) {
+                        sending = false;
+                    }
+                    drain();
+                });
+                return;
+            }
+            synchronized (this) {
+                sending = false;
+            }
+        }
+    }
+
+    private void lingerElapsed() {
+        synchronized (this) {
+            lingerScheduled = false;
+            lingerExpired = true;
+        }
+        drain();
+    }
+
+    private Packet poll() {
+        Entry entry = pending.poll();
+        if (entry.key != null) {
+            conflatable.remove(entry.key);
+        }
+        return entry.message;
+    }
+
+    private boolean removeOldestOnTopic(String topic) {
+        Iterator<Entry> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (Objects.equals(entry.message.getTopic(), topic)) {
+                iterator.remove();
+                if (entry.key != null) {
+                    conflatable.remove(entry.key);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Entry {
+        private Packet message;
+        private final String key;
+
+        Entry(Packet message, String key) {
+            this.message = message;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.OverflowPolicy;
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.Subscriber;
+import com.sportsnotification.dto.SubscriberQueueStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+@Profile("broker")
+@Component
+public class SubscriberQueueManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriberQueueManager.class);
+
+    private final ConcurrentHashMap<String, SubscriberQueue> queues = new ConcurrentHashMap<>();
+    // Subscribers connected to this broker over a socket, delivered through it rather than a callback URL
+    private final ConcurrentHashMap<String, DeliverySink> connectedSinks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService lingerScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "batch-linger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    private SubscriberDeliveryClient deliveryClient;
+
+    @Autowired
+    private PullConsumerManager pullConsumers;
+
+    @Autowired
+    @Lazy
+    private BrokerService brokerService;
+
+    @Value("${broker.subscriber.queue.capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${broker.subscriber.queue.overflow-policy:DROP_OLDEST}")
+    private OverflowPolicy defaultOverflowPolicy;
+
+    @Value("${broker.delivery.batch.max-size:100}")
+    private int batchMaxSize;
+
+    @Value("${broker.delivery.batch.linger-ms:50}")
+    private long batchLingerMs;
+
+    public void registerSink(String connectionUrl, DeliverySink sink) {
+        connectedSinks.put(connectionUrl, sink);
+    }
+
+    public void unregisterSink(String connectionUrl) {
+        connectedSinks.remove(connectionUrl);
+    }
+
+    public void enqueue(Subscriber subscriber, Packet message, boolean conflate) {
+        if (isConnectionScheme(subscriber.getConnectionUrl()) && !connectedSinks.containsKey(subscriber.getConnectionUrl())) {
+            // The socket of a broker that left, handed to the leader; it reconnects and subscribes again
+            brokerService.disconnectSubscriber(subscriber.getConnectionUrl());
+            return;
+        }
+        SubscriberQueue queue = queues.computeIfAbsent(subscriber.getConnectionUrl(), url -> createQueue(subscriber));
+        if (!queue.offer(message, conflate)) {
+            queues.remove(subscriber.getConnectionUrl(), queue);
+            brokerService.disconnectSubscriber(subscriber.getConnectionUrl());
+        }
+    }
+
+    public void remove(String connectionUrl) {
+        if (PullConsumerManager.isPullConnection(connectionUrl)) {
+            pullConsumers.remove(connectionUrl);
+        }
+        SubscriberQueue queue = queues.remove(connectionUrl);
+        if (queue != null) {
+            queue.close();
+            logger.info("Removed delivery queue for subscriber: {}", connectionUrl);
+        }
+    }
+
+    public List<SubscriberQueueStats> getStats() {
+        List<SubscriberQueueStats> stats = new ArrayList<>();
+        for (SubscriberQueue queue : queues.values()) {
+            stats.add(queue.getStats());
+        }
+        return stats;
+    }
+
+    private SubscriberQueue createQueue(Subscriber topicSubscriber) {
+        // Delivery capabilities are declared at registration, not on each subscribe call
+        Subscriber registered = brokerService.getRegisteredSubscriber(topicSubscriber.getConnectionUrl());
+        Subscriber subscriber = registered != null ? registered : topicSubscriber;
+        OverflowPolicy overflowPolicy = subscriber.getOverflowPolicy() != null ? subscriber.getOverflowPolicy() : defaultOverflowPolicy;
+        boolean callback = !isConnectionScheme(subscriber.getConnectionUrl()) && !PullConsumerManager.isPullConnection(subscriber.getConnectionUrl());
+        int batchSize = subscriber.isBatchDelivery() && callback ? batchMaxSize : 1;
+        return new SubscriberQueue(subscriber, queueCapacity, overflowPolicy, batchSize, batchLingerMs, sinkFor(subscriber), lingerScheduler);
+    }
+
+    private DeliverySink sinkFor(Subscriber subscriber) {
+        if (PullConsumerManager.isPullConnection(subscriber.getConnectionUrl())) {
+            return pullConsumers.sinkFor(subscriber.getConnectionUrl());
+        }
+        DeliverySink connected = connectedSinks.get(subscriber.getConnectionUrl());
+        return connected != null ? connected : deliveryClient.sinkFor(subscriber);
+    }
+
+    private static boolean isConnectionScheme(String connectionUrl) {
+        return connectionUrl != null && connectionUrl.startsWith(SubscriberWebSocketHandler.CONNECTION_SCHEME);
+    }
+}
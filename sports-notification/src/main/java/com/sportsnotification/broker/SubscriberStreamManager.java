@@ -0,0 +1,309 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.OverflowPolicy;
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.Subscriber;
+import com.sportsnotification.dto.SubscriberQueueStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+// Server-Sent Events streams for subscribers that hold a connection open instead of exposing a
+// callback URL. Each stream gets its own bounded SubscriberQueue, so a slow reader only delays
+// itself; writes happen on a small writer pool because a blocked socket would otherwise stall
+// the dispatcher. Event ids are log positions, an offset per partition, so a reconnect with
+// Last-Event-ID resumes from the log.
+@Profile("broker")
+@Component
+public class SubscriberStreamManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriberStreamManager.class);
+
+    private final ConcurrentHashMap<String, SseStream> streams = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<SseStream>> streamsByPattern = new ConcurrentHashMap<>();
+    private final TopicTrie trie = new TopicTrie();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stream-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ExecutorService writers;
+
+    @Autowired
+    private ReplicationLog replicationLog;
+
+    @Autowired
+    private FilterCompiler filterCompiler;
+
+    @Value("${broker.stream.writer-threads:4}")
+    private int writerThreads;
+
+    @Value("${broker.stream.queue.capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${broker.stream.overflow-policy:DROP_OLDEST}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${broker.stream.keepalive-ms:15000}")
+    private long keepaliveMs;
+
+    @Value("${broker.stream.max-replay:10000}")
+    private int maxReplay;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        writers = Executors.newFixedThreadPool(writerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "stream-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::keepalive, keepaliveMs, keepaliveMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Opens a stream for the topic patterns; with lastEventId set, first replays what was published after it
+    public SseEmitter open(List<String> patterns, String filter, String lastEventId) {
+        for (String pattern : patterns) {
+            if (!TopicTrie.isValidPattern(pattern)) {
+                throw new IllegalArgumentException("Invalid topic pattern: " + pattern);
+            }
+        }
+        Map<Integer, Long> resumed = lastEventId != null ? ReplicationLog.parsePositions(lastEventId) : null;
+        SseStream stream = new SseStream(patterns, filterCompiler.compile(filter), resumed);
+        streams.put(stream.id, stream);
+        synchronized (this) {
+            for (String pattern : patterns) {
+                streamsByPattern.computeIfAbsent(pattern, p -> {
+                    trie.add(p);
+                    return ConcurrentHashMap.newKeySet();
+                }).add(stream);
+            }
+        }
+        logger.info("Opened stream {} for topics {}", stream.id, patterns);
+        if (resumed != null) {
+            writers.execute(() -> stream.replay(resumed));
+        }
+        return stream.emitter;
+    }
+
+    // Dispatcher side: queues the packet on every open stream that matches it
+    public void publish(Packet message, boolean conflate) {
+        if (streams.isEmpty()) {
+            return;
+        }
+        List<String> matched = trie.match(message.getTopic());
+        Set<SseStream> delivered = matched.size() > 1 ? new HashSet<>() : null;
+        for (String pattern : matched) {
+            Set<SseStream> subscribed = streamsByPattern.get(pattern);
+            if (subscribed == null) {
+                continue;
+            }
+            for (SseStream stream : subscribed) {
+                if (delivered == null || delivered.add(stream)) {
+                    stream.offer(message, conflate);
+                }
+            }
+        }
+    }
+
+    public List<SubscriberQueueStats> getStats() {
+        List<SubscriberQueueStats> stats = new ArrayList<>();
+        for (SseStream stream : streams.values()) {
+            stats.add(stream.queue.getStats());
+        }
+        return stats;
+    }
+
+    private void close(SseStream stream) {
+        if (streams.remove(stream.id) == null) {
+            return;
+        }
+        stream.queue.close();
+        synchronized (this) {
+            for (String pattern : stream.patterns) {
+                Set<SseStream> subscribed = streamsByPattern.get(pattern);
+                if (subscribed != null && subscribed.remove(stream) && subscribed.isEmpty()) {
+                    streamsByPattern.remove(pattern);
+                    trie.remove(pattern);
+                }
+            }
+        }
+        logger.info("Closed stream {}", stream.id);
+    }
+
+    private void keepalive() {
+        for (SseStream stream : streams.values()) {
+            writers.execute(() -> {
+                try {
+                    stream.emitter.send(SseEmitter.event().comment("keepalive"));
+                } catch (Exception e) {
+                    stream.emitter.completeWithError(e);
+                    close(stream);
+                }
+            });
+        }
+    }
+
+    private class SseStream implements DeliverySink {
+        private final String id = UUID.randomUUID().toString();
+        private final List<String> patterns;
+        private final Predicate<Packet> filter;
+        private final SseEmitter emitter = new SseEmitter(0L);
+        private final SubscriberQueue queue;
+        // While the stream replays, live packets are skipped: they are in the log, so the replay sends them
+        private boolean replaying;
+        private Map<Integer, Long> replayedOffsets = Map.of();
+        // The last offset sent of each partition, which every event id carries
+        private final ConcurrentHashMap<Integer, Long> positions = new ConcurrentHashMap<>();
+
+        SseStream(List<String> patterns, Predicate<Packet> filter, Map<Integer, Long> resumed) {
+            this.patterns = patterns;
+            this.filter = filter;
+            this.replaying = resumed != null;
+            // A new stream starts at the end of the log, so resuming it does not replay what came before
+            positions.putAll(resumed != null ? resumed : replicationLog.getLastOffsets());
+            Subscriber subscriber = new Subscriber(null, String.join(",", patterns), null, "stream:" + id);
+            this.queue = new SubscriberQueue(subscriber, queueCapacity, overflowPolicy, 1, 0, this, scheduler);
+            emitter.onCompletion(() -> close(this));
+            emitter.onTimeout(() -> close(this));
+            emitter.onError(error -> close(this));
+        }
+
+        void offer(Packet message, boolean conflate) {
+            if (filter != null && !filter.test(message)) {
+                return;
+            }
+            boolean open;
+            synchronized (this) {
+                if (replaying) {
+                    return;
+                }
+                if (message.getPartition() != null && message.getOffset() != null
+                        && message.getOffset() <= replayedOffsets.getOrDefault(message.getPartition(), 0L)) {
+                    return; // already sent by the replay
+                }
+                open = queue.offer(message, conflate);
+            }
+            if (!open) {
+                emitter.complete();
+                close(this);
+            }
+        }
+
+        // Writes each partition's log after the resumed position straight to the emitter, so the socket
+        // paces the replay and nothing is dropped by the queue's bound, then switches to the queue once
+        // every partition has caught up
+        void replay(Map<Integer, Long> resumed) {
+            Map<Integer, Long> offsets = new TreeMap<>();
+            try {
+                while (true) {
+                    boolean replayed = false;
+                    for (int partition : replicationLog.getPartitions()) {
+                        long offset = offsets.computeIfAbsent(partition, p -> Math.max(resumed.getOrDefault(p, 0L),
+                                Math.max(replicationLog.getLogStartOffset(p), replicationLog.getLastOffset(p) - maxReplay + 1) - 1));
+                        List<Packet> entries = replicationLog.entriesAfter(partition, offset, 500);
+                        if (entries.isEmpty()) {
+                            continue;
+                        }
+                        List<Packet> matched = new ArrayList<>();
+                        for (Packet message : entries) {
+                            offsets.put(partition, message.getOffset());
+                            if (matches(message)) {
+                                matched.add(message);
+                            }
+                        }
+                        send(matched);
+                        replayed = true;
+                    }
+                    if (!replayed) {
+                        synchronized (this) {
+                            // Anything appended after this check is offered live, once replaying is off
+                            if (caughtUp(offsets)) {
+                                replayedOffsets = offsets;
+                                replaying = false;
+                                return;
+                            }
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to replay to stream {}: {}", id, e.getMessage());
+                emitter.completeWithError(e);
+                close(this);
+            }
+        }
+
+        private boolean caughtUp(Map<Integer, Long> offsets) {
+            for (int partition : replicationLog.getPartitions()) {
+                if (!offsets.containsKey(partition) || !replicationLog.entriesAfter(partition, offsets.get(partition), 1).isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean matches(Packet message) {
+            List<String> matched = trie.match(message.getTopic());
+            for (String pattern : patterns) {
+                if (matched.contains(pattern)) {
+                    return filter == null || filter.test(message);
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> deliver(Packet message) {
+            return deliverBatch(List.of(message));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> deliverBatch(List<Packet> messages) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    send(messages);
+                    return true;
+                } catch (Exception e) {
+                    logger.warn("Failed to write to stream {}: {}", id, e.getMessage());
+                    emitter.completeWithError(e);
+                    close(this);
+                    return false;
+                }
+            }, writers);
+        }
+
+        private void send(List<Packet> messages) throws IOException {
+            for (Packet message : messages) {
+                SseEmitter.SseEventBuilder event = SseEmitter.event().name(message.getTopic()).data(message, MediaType.APPLICATION_JSON);
+                if (message.getPartition() != null && message.getOffset() != null) {
+                    positions.merge(message.getPartition(), message.getOffset(), Math::max);
+                    event.id(ReplicationLog.formatPositions(positions));
+                }
+                emitter.send(event);
+            }
+        }
+    }
+}
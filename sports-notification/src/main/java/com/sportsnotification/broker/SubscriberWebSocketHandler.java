@@ -0,0 +1,225 @@
+package com.sportsnotification.broker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.Subscriber;
+import com.sportsnotification.dto.WebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One multiplexed connection per gateway: subscribe, unsubscribe and ack frames come in, packets go out.
+// The connection is registered as a subscriber like any other, so subscriptions go through
+// BrokerService and the same registry; only delivery differs. Outgoing packets consume credits
+// that the client grants with ack frames, and wait in the subscriber's queue while it has none.
+@Profile("broker")
+@Component
+public class SubscriberWebSocketHandler extends TextWebSocketHandler {
+
+    public static final String CONNECTION_SCHEME = "ws-session:";
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriberWebSocketHandler.class);
+
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+    private ExecutorService writers;
+
+    @Autowired
+    private BrokerService brokerService;
+
+    @Autowired
+    private SubscriberQueueManager subscriberQueues;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${broker.websocket.writer-threads:4}")
+    private int writerThreads;
+
+    @Value("${broker.websocket.initial-credits:100}")
+    private int initialCredits;
+
+    @Value("${broker.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+
+    @Value("${broker.websocket.buffer-size-limit:1048576}")
+    private int bufferSizeLimit;
+
+    // Connection URLs are ws-session:<brokerId>:<sessionId>, naming the broker that holds the socket
+    public static Integer brokerOf(String connectionUrl) {
+        if (connectionUrl == null || !connectionUrl.startsWith(CONNECTION_SCHEME)) {
+            return null;
+        }
+        int end = connectionUrl.indexOf(':', CONNECTION_SCHEME.length());
+        try {
+            return end < 0 ? null : Integer.valueOf(connectionUrl.substring(CONNECTION_SCHEME.length(), end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        writers = Executors.newFixedThreadPool(writerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "websocket-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        Channel channel = new Channel(new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMs, bufferSizeLimit));
+        channels.put(session.getId(), channel);
+        subscriberQueues.registerSink(channel.connectionUrl, channel);
+        brokerService.registerSubscriber(new Subscriber(null, null, null, channel.connectionUrl));
+        logger.info("WebSocket subscriber connected: {}", channel.connectionUrl);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        Channel channel = channels.get(session.getId());
+        if (channel == null) {
+            return;
+        }
+        WebSocketFrame frame;
+        try {
+            frame = objectMapper.readValue(message.getPayload(), WebSocketFrame.class);
+        } catch (Exception e) {
+            channel.reply(new WebSocketFrame("error", null, null, null, null, "Malformed frame"));
+            return;
+        }
+        String type = frame.getType() != null ? frame.getType() : "";
+        switch (type) {
+            case "subscribe":
+            case "unsubscribe": {
+                Subscriber subscriber = new Subscriber(null, frame.getTopic(), null, channel.connectionUrl);
+                subscriber.setFilter(frame.getFilter());
+                ResponseEntity<String> response = type.equals("subscribe")
+                        ? brokerService.subscribeToTopic(subscriber)
+                        : brokerService.unsubscribeToTopic(subscriber);
+                if (response.getStatusCode().is2xxSuccessful()) {
+                    channel.reply(new WebSocketFrame(type + "d", frame.getTopic(), frame.getFilter(), null, null, null));
+                } else {
+                    channel.reply(new WebSocketFrame("error", frame.getTopic(), frame.getFilter(), null, null, response.getBody()));
+                }
+                break;
+            }
+            case "ack":
+                channel.grant(frame.getCredits() != null ? frame.getCredits() : 0);
+                break;
+            default:
+                channel.reply(new WebSocketFrame("error", null, null, null, null, "Unknown frame type: " + type));
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Channel channel = channels.remove(session.getId());
+        if (channel != null) {
+            channel.close();
+            subscriberQueues.unregisterSink(channel.connectionUrl);
+            brokerService.disconnectSubscriber(channel.connectionUrl);
+            logger.info("WebSocket subscriber disconnected: {} ({})", channel.connectionUrl, status);
+        }
+    }
+
+    private class Channel implements DeliverySink {
+        private final WebSocketSession session;
+        private final String connectionUrl;
+        private int credits = initialCredits;
+        // The subscriber queue sends one delivery at a time, so at most one waits for credits
+        private Runnable parked;
+        private int parkedSize;
+        private boolean closed = false;
+
+        Channel(WebSocketSession session) {
+            this.session = session;
+            this.connectionUrl = CONNECTION_SCHEME + brokerService.getCurrentBroker().getId() + ":" + session.getId();
+        }
+
+        @Override
+        public CompletableFuture<Boolean> deliver(Packet message) {
+            return deliverBatch(List.of(message));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> deliverBatch(List<Packet> messages) {
+            CompletableFuture<Boolean> result = new CompletableFuture<>();
+            Runnable send = () -> writers.execute(() -> result.complete(write(messages)));
+            synchronized (this) {
+                if (closed) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                if (credits < messages.size()) {
+                    parked = send;
+                    parkedSize = messages.size();
+                    return result;
+                }
+                credits -= messages.size();
+            }
+            send.run();
+            return result;
+        }
+
+        void grant(int granted) {
+            Runnable next = null;
+            synchronized (this) {
+                credits += Math.max(0, granted);
+                if (parked != null && credits >= parkedSize) {
+                    credits -= parkedSize;
+                    next = parked;
+                    parked = null;
+                }
+            }
+            if (next != null) {
+                next.run();
+            }
+        }
+
+        void reply(WebSocketFrame frame) {
+            writers.execute(() -> send(frame));
+        }
+
+        synchronized void close() {
+            closed = true;
+            parked = null;
+        }
+
+        private boolean write(List<Packet> messages) {
+            for (Packet message : messages) {
+                if (!send(new WebSocketFrame("message", message.getTopic(), null, null, message, null))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean send(WebSocketFrame frame) {
+            try {
+                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(frame)));
+                return true;
+            } catch (Exception e) {
+                logger.warn("Failed to send to WebSocket subscriber {}: {}", connectionUrl, e.getMessage());
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Broker;
+import com.sportsnotification.dto.ReplicationAck;
+import com.sportsnotification.dto.Subscriber;
+import com.sportsnotification.dto.SubscriptionChange;
+import com.sportsnotification.dto.SubscriptionChangeType;
+import com.sportsnotification.dto.SubscriptionSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Replicates subscription state as versioned change events instead of full copies. The leader
+// applies each change to the registry, numbers it and sends it to the followers in order; a
+// follower applies changes strictly in sequence and answers a gap with the version it holds.
+// The leader then resends the missing changes from its recent history, or a full snapshot when
+// the gap reaches back past the history or the follower last followed another leader. A send that
+// fails or times out may have lost a change, so the follower is resynced from a snapshot. Only the
+// leader numbers changes: a follower forwards its own to the leader, which replicates them back.
+@Profile("broker")
+@Component
+public class SubscriptionChangeLog {
+
+    public static final String CHANGES_PATH = "/broker/replicatesubscriptionchanges";
+    public static final String SNAPSHOT_PATH = "/broker/replicatesubscriptionsnapshot";
+    public static final String COMMIT_PATH = "/broker/commitsubscriptionchange";
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionChangeLog.class);
+
+    // Changes this process numbers as leader carry it, so followers can tell leaders apart
+    private final long origin = UUID.randomUUID().getMostSignificantBits();
+    private final ArrayDeque<SubscriptionChange> history = new ArrayDeque<>();
+    private final ConcurrentHashMap<Integer, Boolean> catchingUp = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "subscription-resync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long version = 0;
+    private long appliedOrigin = 0; // origin of the changes the registry reflects, 0 before any
+
+    @Autowired
+    private SubscriptionRegistry subscriptionRegistry;
+
+    @Autowired
+    private ReplicationPipeline replicationPipeline;
+
+    @Autowired
+    @Lazy
+    private BrokerRegistration brokerRegistration;
+
+    @Value("${broker.subscriptions.history:10000}")
+    private int historySize;
+
+    @Value("${broker.subscriptions.resync-delay-ms:1000}")
+    private long resyncDelayMs;
+
+    // Leader side: applies the change and replicates it if it changed anything. Returns whether it did.
+    public synchronized boolean commit(SubscriptionChangeType type, Subscriber subscriber) {
+        Broker current = brokerRegistration.getCurrentBroker();
+        if (current != null && !current.isLeader()) {
+            throw new IllegalStateException("Only the leader commits subscription changes");
+        }
+        if (!apply(type, subscriber)) {
+            return false;
+        }
+        if (appliedOrigin != origin) {
+            history.clear(); // numbered by a previous leader
+            appliedOrigin = origin;
+        }
+        SubscriptionChange change = new SubscriptionChange(++version, origin, type, subscriber);
+        history.addLast(change);
+        while (history.size() > historySize) {
+            history.removeFirst();
+        }
+        // Enqueued under the lock, so every follower receives changes in version order
+        replicationPipeline.broadcast(CHANGES_PATH, List.of(change), this::onReply);
+        return true;
+    }
+
+    // Leader side: a broker that just became a follower gets the full state, ordered before any change
+    // sent to it after this call
+    public void syncFollower(Broker broker) {
+        catchingUp.remove(broker.getId()); // left over from an earlier membership, if any
+        catchUp(broker, -1);
+    }
+
+    // Follower side: blocks until the registry holds a leader's subscription state, or this broker leads
+    public synchronized void awaitState() throws InterruptedException {
+        while (appliedOrigin == 0 && !isLeader()) {
+            wait(100);
+        }
+    }
+
+    private boolean isLeader() {
+        Broker current = brokerRegistration.getCurrentBroker();
+        return current != null && current.isLeader();
+    }
+
+    // Follower side: applies a change the leader has committed for this broker right away, without
+    // numbering it; the leader's numbered copy follows and applies again as a no-op
+    public synchronized void applyForwarded(SubscriptionChangeType type, Subscriber subscriber) {
+        apply(type, subscriber);
+    }
+
+    // Follower side: applies the changes that follow the held version. Returns the version now held,
+    // which is short of the last change on a gap, and -1 if the changes come from another leader.
+    public synchronized long applyChanges(List<SubscriptionChange> changes) {
+        for (SubscriptionChange change : changes) {
+            if (change.getOrigin() != appliedOrigin) {
+                return -1;
+            }
+            if (change.getVersion() > version + 1) {
+                return version;
+            }
+            if (change.getVersion() == version + 1) {
+                apply(change.getType(), change.getSubscriber());
+                version = change.getVersion();
+            }
+        }
+        return version;
+    }
+
+    // Follower side: replaces the registry's contents, unless the snapshot is older than what it holds
+    public synchronized void applySnapshot(SubscriptionSnapshot snapshot) {
+        if (snapshot.getOrigin() == appliedOrigin && snapshot.getVersion() <= version) {
+            return;
+        }
+        subscriptionRegistry.replaceSubscribers(snapshot.getSubscribers());
+        subscriptionRegistry.replaceTopicSubscriptions(snapshot.getTopicSubscriptions());
+        appliedOrigin = snapshot.getOrigin();
+        version = snapshot.getVersion();
+        history.clear();
+        notifyAll();
+        logger.info("Applied subscription snapshot at version {}", version);
+    }
+
+    private boolean apply(SubscriptionChangeType type, Subscriber subscriber) {
+        switch (type) {
+            case REGISTER:
+                return subscriptionRegistry.register(subscriber);
+            case SUBSCRIBE:
+                subscriptionRegistry.subscribe(subscriber);
+                return true;
+            case UNSUBSCRIBE:
+                return subscriptionRegistry.unsubscribe(subscriber.getConnectionUrl(), subscriber.getTopic());
+            default:
+                return subscriptionRegistry.remove(subscriber.getConnectionUrl());
+        }
+    }
+
+    // Replies to regular changes: a 409 carries the version the follower holds, and a failed send may
+    // have lost the change, so the follower is resynced from a snapshot after a pause
+    private void onReply(Broker broker, HttpResponse<byte[]> response) {
+        if (response == null || response.statusCode() >= 500) {
+            scheduleResync(broker);
+        } else if (response.statusCode() == 409) {
+            catchUp(broker, heldVersion(response));
+        }
+    }
+
+    private long heldVersion(HttpResponse<byte[]> response) {
+        try {
+            return replicationPipeline.decode(response, ReplicationAck.class).getAckedOffset();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private void scheduleResync(Broker broker) {
+        if (catchingUp.putIfAbsent(broker.getId(), Boolean.TRUE) != null) {
+            return; // a catch-up is in flight and resyncs it anyway
+        }
+        retryScheduler.schedule(() -> {
+            catchingUp.remove(broker.getId());
+            if (replicationPipeline.hasFollower(broker)) {
+                catchUp(broker, -1);
+            }
+        }, resyncDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Later changes queue behind the catch-up, so their gap replies are ignored until it is answered;
+    // a held version of -1 sends a snapshot
+    private void catchUp(Broker broker, long held) {
+        if (catchingUp.putIfAbsent(broker.getId(), Boolean.TRUE) != null) {
+            return;
+        }
+        synchronized (this) {
+            SubscriptionChange oldest = history.peekFirst();
+            if (held >= 0 && appliedOrigin == origin && oldest != null && oldest.getVersion() <= held + 1) {
+                List<SubscriptionChange> missing = new ArrayList<>();
+                for (SubscriptionChange change : history) {
+                    if (change.getVersion() > held) {
+                        missing.add(change);
+                    }
+                }
+                logger.info("Resending {} subscription changes to broker {} from version {}", missing.size(), broker.getId(), held);
+                replicationPipeline.send(broker, CHANGES_PATH, missing, this::onCatchUpReply);
+            } else {
+                logger.info("Sending subscription snapshot at version {} to broker {}", version, broker.getId());
+                replicationPipeline.send(broker, SNAPSHOT_PATH, new SubscriptionSnapshot(version, origin,
+                        subscriptionRegistry.getSubscribers(), subscriptionRegistry.getTopicSubscriptions()), this::onCatchUpReply);
+            }
+        }
+    }
+
+    private void onCatchUpReply(Broker broker, HttpResponse<byte[]> response) {
+        catchingUp.remove(broker.getId());
+        onReply(broker, response);
+    }
+}
@@ -0,0 +1,178 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Subscriber;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Registered subscribers indexed by connection URL, and subscriptions indexed by topic pattern.
+// Patterns may use "*" and "#" wildcards over dotted topics; a published topic is resolved through
+// a TopicTrie and the result is cached until the subscriptions change.
+@Profile("broker")
+@Component
+public class SubscriptionRegistry {
+
+    private static final int MAX_CACHED_TOPICS = 10000;
+
+    private final ConcurrentHashMap<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Subscriber>> patterns = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> patternsBySubscriber = new ConcurrentHashMap<>();
+    private final TopicTrie trie = new TopicTrie();
+    private final AtomicLong version = new AtomicLong();
+    private final ConcurrentHashMap<String, Snapshot> matches = new ConcurrentHashMap<>();
+
+    public boolean register(Subscriber subscriber) {
+        return subscribers.putIfAbsent(subscriber.getConnectionUrl(), subscriber) == null;
+    }
+
+    public boolean isRegistered(String connectionUrl) {
+        return connectionUrl != null && subscribers.containsKey(connectionUrl);
+    }
+
+    public Subscriber get(String connectionUrl) {
+        return connectionUrl == null ? null : subscribers.get(connectionUrl);
+    }
+
+    public synchronized void subscribe(Subscriber subscriber) {
+        if (!TopicTrie.isValidPattern(subscriber.getTopic())) {
+            throw new IllegalArgumentException("Invalid topic pattern: " + subscriber.getTopic());
+        }
+        add(subscriber.getTopic(), subscriber);
+        version.incrementAndGet();
+    }
+
+    public synchronized boolean unsubscribe(String connectionUrl, String pattern) {
+        Set<String> subscribed = patternsBySubscriber.get(connectionUrl);
+        if (subscribed != null) {
+            subscribed.remove(pattern);
+        }
+        boolean removed = removeMember(pattern, connectionUrl);
+        version.incrementAndGet();
+        return removed;
+    }
+
+    // Drops the subscriber and all of its subscriptions; returns false if there was nothing to drop
+    public synchronized boolean remove(String connectionUrl) {
+        boolean removed = subscribers.remove(connectionUrl) != null;
+        Set<String> subscribed = patternsBySubscriber.remove(connectionUrl);
+        if (subscribed != null) {
+            for (String pattern : subscribed) {
+                removed |= removeMember(pattern, connectionUrl);
+            }
+        }
+        version.incrementAndGet();
+        return removed;
+    }
+
+    // Every subscription matching the topic, listed once per subscriber and filter
+    public List<Subscriber> subscribersOf(String topic) {
+        long current = version.get();
+        Snapshot cached = matches.get(topic);
+        if (cached != null && cached.version == current) {
+            return cached.subscribers;
+        }
+        Map<String, Subscriber> matched = new LinkedHashMap<>();
+        for (String pattern : trie.match(topic)) {
+            ConcurrentHashMap<String, Subscriber> members = patterns.get(pattern);
+            if (members != null) {
+                for (Subscriber subscriber : members.values()) {
+                    matched.putIfAbsent(subscriber.getConnectionUrl() + "\n" + subscriber.getFilter(), subscriber);
+                }
+            }
+        }
+        Snapshot snapshot = new Snapshot(current, List.copyOf(matched.values()));
+        if (matches.size() >= MAX_CACHED_TOPICS) {
+            matches.clear();
+        }
+        matches.put(topic, snapshot);
+        return snapshot.subscribers;
+    }
+
+    public List<Subscriber> getSubscribers() {
+        return new ArrayList<>(subscribers.values());
+    }
+
+    public Map<String, List<Subscriber>> getTopicSubscriptions() {
+        Map<String, List<Subscriber>> result = new HashMap<>();
+        patterns.forEach((pattern, members) -> result.put(pattern, new ArrayList<>(members.values())));
+        return result;
+    }
+
+    // Follower side: replaces the registered subscribers without an empty window
+    public void replaceSubscribers(List<Subscriber> replacement) {
+        Map<String, Subscriber> byUrl = new HashMap<>();
+        for (Subscriber subscriber : replacement) {
+            byUrl.put(subscriber.getConnectionUrl(), subscriber);
+        }
+        subscribers.putAll(byUrl);
+        subscribers.keySet().retainAll(byUrl.keySet());
+    }
+
+    // Follower side: replaces all subscriptions without an empty window
+    public synchronized void replaceTopicSubscriptions(Map<String, List<Subscriber>> replacement) {
+        for (Map.Entry<String, List<Subscriber>> entry : replacement.entrySet()) {
+            for (Subscriber subscriber : entry.getValue()) {
+                add(entry.getKey(), subscriber);
+            }
+        }
+        for (String pattern : new ArrayList<>(patterns.keySet())) {
+            List<Subscriber> wanted = replacement.get(pattern);
+            Set<String> urls = new HashSet<>();
+            if (wanted != null) {
+                for (Subscriber subscriber : wanted) {
+                    urls.add(subscriber.getConnectionUrl());
+                }
+            }
+            for (String url : new ArrayList<>(patterns.get(pattern).keySet())) {
+                if (!urls.contains(url)) {
+                    removeMember(pattern, url);
+                    Set<String> subscribed = patternsBySubscriber.get(url);
+                    if (subscribed != null) {
+                        subscribed.remove(pattern);
+                    }
+                }
+            }
+        }
+        version.incrementAndGet();
+    }
+
+    private void add(String pattern, Subscriber subscriber) {
+        patterns.computeIfAbsent(pattern, p -> {
+            trie.add(p);
+            return new ConcurrentHashMap<>();
+        }).put(subscriber.getConnectionUrl(), subscriber);
+        patternsBySubscriber.computeIfAbsent(subscriber.getConnectionUrl(), url -> ConcurrentHashMap.newKeySet()).add(pattern);
+    }
+
+    private boolean removeMember(String pattern, String connectionUrl) {
+        ConcurrentHashMap<String, Subscriber> members = patterns.get(pattern);
+        if (members == null) {
+            return false;
+        }
+        boolean removed = members.remove(connectionUrl) != null;
+        if (members.isEmpty()) {
+            patterns.remove(pattern);
+            trie.remove(pattern);
+        }
+        return removed;
+    }
+
+    private static class Snapshot {
+        private final long version;
+        private final List<Subscriber> subscribers;
+
+        Snapshot(long version, List<Subscriber> subscribers) {
+            this.version = version;
+            this.subscribers = subscribers;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.MessagePage;
+import com.sportsnotification.dto.Packet;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-topic offsets and a bounded window of recent packets per topic, so reconnecting
+// subscribers can page through what they missed.
+@Profile("broker")
+@Component
+public class TopicHistory {
+
+    private final ConcurrentHashMap<String, TopicBuffer> buffers = new ConcurrentHashMap<>();
+
+    @Value("${broker.retention.messages-per-topic:1000}")
+    private int messagesPerTopic;
+
+    @Value("${broker.retention.max-page:500}")
+    private int maxPage;
+
+    // Leader side: stamps the next topic offset on the packet and retains it
+    public void assign(Packet message) {
+        buffer(message.getTopic()).assign(message);
+    }
+
+    // Follower side: retains a packet that the leader already stamped
+    public void record(Packet message) {
+        if (message.getTopicOffset() != null) {
+            buffer(message.getTopic()).add(message);
+        }
+    }
+
+    public MessagePage page(String topic, long fromOffset, int max) {
+        TopicBuffer buffer = buffers.get(topic);
+        if (buffer == null) {
+            return new MessagePage(topic, new ArrayList<>(), fromOffset, 1);
+        }
+        return buffer.page(topic, fromOffset, Math.min(Math.max(max, 1), maxPage));
+    }
+
+    private TopicBuffer buffer(String topic) {
+        return buffers.computeIfAbsent(topic, t -> new TopicBuffer(messagesPerTopic));
+    }
+
+    private static class TopicBuffer {
+        private final Packet[] ring;
+        private int start = 0;
+        private int size = 0;
+        private long lastOffset = 0;
+
+        TopicBuffer(int capacity) {
+            this.ring = new Packet[capacity];
+        }
+
+        synchronized void assign(Packet message) {
+            message.setTopicOffset(lastOffset + 1);
+            add(message);
+        }
+
+        synchronized void add(Packet message) {
+            if (message.getTopicOffset() <= lastOffset) {
+                return; // already retained
+            }
+            if (size == ring.length) {
+                ring[start] = message;
+                start = (start + 1) % ring.length;
+            } else {
+                ring[(start + size) % ring.length] = message;
+                size++;
+            }
+            lastOffset = message.getTopicOffset();
+        }
+
+        synchronized MessagePage page(String topic, long fromOffset, int max) {
+            long earliestOffset = size == 0 ? lastOffset + 1 : at(0).getTopicOffset();
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (at(mid).getTopicOffset() < fromOffset) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            List<Packet> messages = new ArrayList<>();
+            for (int i = low; i < size && messages.size() < max; i++) {
+                messages.add(at(i));
+            }
+            long nextOffset = messages.isEmpty() ? Math.max(fromOffset, earliestOffset) : messages.get(messages.size() - 1).getTopicOffset() + 1;
+            return new MessagePage(topic, messages, nextOffset, earliestOffset);
+        }
+
+        private Packet at(int index) {
+            return ring[(start + index) % ring.length];
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.sportsnotification.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Subscription patterns over dotted topics such as nba.lakers.score, stored segment by segment.
+// "*" matches exactly one segment and "#" matches zero or more, so matching a published topic
+// costs a walk proportional to its depth rather than a scan of every subscription.
+// Lookups are lock-free; changes are serialized by the caller.
+class TopicTrie {
+
+    static final String SINGLE = "*";
+    static final String MULTI = "#";
+
+    private final Node root = new Node();
+
+    static boolean isValidPattern(String pattern) {
+        if (pattern == null || pattern.isEmpty()) {
+            return false;
+        }
+        for (String segment : pattern.split("\\.", -1)) {
+            if (segment.isEmpty()) {
+                return false;
+            }
+            if (!segment.equals(SINGLE) && !segment.equals(MULTI)
+                    && (segment.contains(SINGLE) || segment.contains(MULTI))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Published topics are concrete: no wildcards and no empty segments
+    static boolean isValidTopic(String topic) {
+        return isValidPattern(topic) && !topic.contains(SINGLE) && !topic.contains(MULTI);
+    }
+
+    void add(String pattern) {
+        Node node = root;
+        for (String segment : pattern.split("\\.")) {
+            node = node.children.computeIfAbsent(segment, s -> new Node());
+        }
+        node.pattern = pattern;
+    }
+
+    void remove(String pattern) {
+        remove(root, pattern.split("\\."), 0);
+    }
+
+    // All stored patterns that match the topic
+    List<String> match(String topic) {
+        List<String> patterns = new ArrayList<>();
+        match(root, topic.split("\\."), 0, patterns);
+        return patterns;
+    }
+
+    private void match(Node node, String[] segments, int index, List<String> patterns) {
+        Node multi = node.children.get(MULTI);
+        if (multi != null) {
+            // "#" consumes any number of the remaining segments, including none
+            for (int next = index; next <= segments.length; next++) {
+                match(multi, segments, next, patterns);
+            }
+        }
+        if (index == segments.length) {
+            String pattern = node.pattern;
+            if (pattern != null && !patterns.contains(pattern)) {
+                patterns.add(pattern);
+            }
+            return;
+        }
+        Node exact = node.children.get(segments[index]);
+        if (exact != null) {
+            match(exact, segments, index + 1, patterns);
+        }
+        Node single = node.children.get(SINGLE);
+        if (single != null) {
+            match(single, segments, index + 1, patterns);
+        }
+    }
+
+    // Returns true if the node is now empty and can be pruned by its parent
+    private boolean remove(Node node, String[] segments, int index) {
+        if (index == segments.length) {
+            node.pattern = null;
+        } else {
+            Node child = node.children.get(segments[index]);
+            if (child != null && remove(child, segments, index + 1)) {
+                node.children.remove(segments[index]);
+            }
+        }
+        return node.pattern == null && node.children.isEmpty();
+    }
+
+    private static class Node {
+        private final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        private volatile String pattern;
+    }
+}
@@ -1,19 +1,75 @@
 package com.sportsnotification.config;
 
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.sportsnotification.dto.Packet;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Configuration
 @EnableAsync
 public class AppConfig {
     @Bean
-    public RestTemplate restTemplate() {
+    public RestTemplate restTemplate(BinaryCodec binaryCodec, @Value("${wire.binary.enabled:true}") boolean binaryEnabled) {
         SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
         factory.setConnectTimeout(5000); // 5 seconds
         factory.setReadTimeout(5000); // 5 seconds
-        return new RestTemplate(factory);
+        RestTemplate restTemplate = new RestTemplate(factory);
+        if (binaryEnabled) {
+            // Only brokers and coordinators are called through this template
+            restTemplate.getMessageConverters().add(0, new BinaryHttpMessageConverter(binaryCodec, true));
+        }
+        return restTemplate;
+    }
+
+    // Wire format for broker and coordinator traffic; payloads of at least min-bytes are gzipped, -1 (default) disables it
+    @Bean
+    public BinaryCodec binaryCodec(@Value("${wire.compression.min-bytes:-1}") int compressMinBytes) {
+        return new BinaryCodec(compressMinBytes);
+    }
+
+    // Non-blocking client for fan-out; a few threads keep thousands of requests in flight
+    @Bean
+    public HttpClient httpClient(@Value("${http.client.threads:4}") int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newFixedThreadPool(threads, runnable -> {
+                    Thread thread = new Thread(runnable, "http-client-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }))
+                .build();
+    }
+
+    // Registered with Spring's ObjectMapper, so HTTP, replication, SSE and WebSocket writes reuse a packet's cached JSON
+    @Bean
+    public Module encodedPacketModule() {
+        SimpleModule module = new SimpleModule("EncodedPacketModule");
+        module.setSerializerModifier(new BeanSerializerModifier() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public JsonSerializer<?> modifySerializer(SerializationConfig config, BeanDescription description, JsonSerializer<?> serializer) {
+                if (description.getBeanClass() == Packet.class) {
+                    return new EncodedPacketSerializer((JsonSerializer<Object>) serializer);
+                }
+                return serializer;
+            }
+        });
+        return module;
     }
 }
@@ -0,0 +1,748 @@
+package com.sportsnotification.config;
+
+import com.sportsnotification.dto.Broker;
+import com.sportsnotification.dto.CoordinatorSyncData;
+import com.sportsnotification.dto.OverflowPolicy;
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.PartitionTable;
+import com.sportsnotification.dto.Priority;
+import com.sportsnotification.dto.ReplicationAck;
+import com.sportsnotification.dto.ReplicationBatch;
+import com.sportsnotification.dto.Subscriber;
+import com.sportsnotification.dto.SubscriptionChange;
+import com.sportsnotification.dto.SubscriptionChangeType;
+import com.sportsnotification.dto.SubscriptionSnapshot;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Compact binary encoding for the internal traffic between brokers and coordinators: packets,
+// subscribers, brokers, partition tables, coordinator sync data, replication batches and subscription changes, plus lists, sets and
+// string-keyed maps of them. A payload is [version][flags][value]; every value starts with a
+// type tag, fields are written in a fixed order without names, and numbers are varints.
+// Payloads at or above the compression threshold are gzipped when that makes them smaller.
+// Packets that have their offsets keep their encoded fields, so a batch sent to every follower
+// copies each packet's bytes instead of encoding it again per follower.
+public class BinaryCodec {
+
+    public static final String CONTENT_TYPE = "application/x-sports-binary";
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(CONTENT_TYPE);
+
+    private static final int VERSION = 1;
+    private static final int FLAG_GZIP = 1;
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int LIST = 2;
+    private static final int MAP = 3;
+    private static final int PACKET = 4;
+    private static final int SUBSCRIBER = 5;
+    private static final int BROKER = 6;
+    private static final int SYNC_DATA = 7;
+    private static final int REPLICATION_BATCH = 8;
+    private static final int REPLICATION_ACK = 9;
+    private static final int SUBSCRIPTION_CHANGE = 10;
+    private static final int SUBSCRIPTION_SNAPSHOT = 11;
+    private static final int PARTITION_TABLE = 12;
+
+    private static final List<Class<?>> TYPES = List.of(Packet.class, Subscriber.class, Broker.class, PartitionTable.class,
+            CoordinatorSyncData.class, ReplicationBatch.class, ReplicationAck.class, SubscriptionChange.class, SubscriptionSnapshot.class);
+    private static final Priority[] PRIORITIES = Priority.values();
+    private static final OverflowPolicy[] OVERFLOW_POLICIES = OverflowPolicy.values();
+    private static final SubscriptionChangeType[] CHANGE_TYPES = SubscriptionChangeType.values();
+
+    private final int compressMinBytes;
+
+    // A negative threshold turns compression off
+    public BinaryCodec(int compressMinBytes) {
+        this.compressMinBytes = compressMinBytes;
+    }
+
+    // True for the DTOs above and for containers, whose contents are checked by canEncode
+    public boolean canDecode(Type type) {
+        Class<?> raw = rawClass(type);
+        if (raw == null) {
+            return false;
+        }
+        if (raw.isArray()) {
+            return canDecode(raw.getComponentType());
+        }
+        return TYPES.contains(raw) || raw == String.class
+                || Collection.class.isAssignableFrom(raw) || Map.class.isAssignableFrom(raw);
+    }
+
+    public boolean canEncode(Object value) {
+        if (value == null || value instanceof String || TYPES.contains(value.getClass())) {
+            return true;
+        }
+        if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                if (!canEncode(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!(entry.getKey() instanceof String) || !canEncode(entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return value.getClass().isArray() && !value.getClass().getComponentType().isPrimitive()
+                && canEncode(Arrays.asList((Object[]) value));
+    }
+
+    // Whether values of the declared type can be encoded: the element and value types of containers must be
+    // encodable too. Types it cannot tell, like Object or a raw List, pass here and their values are checked by canEncode
+    public boolean canEncodeType(Type type) {
+        if (type instanceof WildcardType) {
+            return canEncodeType(((WildcardType) type).getUpperBounds()[0]);
+        }
+        Class<?> raw = rawClass(type);
+        if (raw == null || raw == Object.class) {
+            return true;
+        }
+        if (raw.isArray()) {
+            return !raw.getComponentType().isPrimitive() && canEncodeType(type instanceof GenericArrayType
+                    ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType());
+        }
+        if (Collection.class.isAssignableFrom(raw)) {
+            return canEncodeType(typeArgument(type, 0));
+        }
+        if (Map.class.isAssignableFrom(raw)) {
+            Class<?> key = rawClass(typeArgument(type, 0));
+            return (key == null || key == Object.class || key == String.class) && canEncodeType(typeArgument(type, 1));
+        }
+        return TYPES.contains(raw) || raw == String.class;
+    }
+
+    public byte[] encode(Object value) {
+        Output body = new Output();
+        body.writeValue(value);
+        byte[] payload = body.toByteArray();
+        int flags = 0;
+        if (compressMinBytes >= 0 && payload.length >= compressMinBytes) {
+            byte[] compressed = gzip(payload);
+            if (compressed.length < payload.length) {
+                payload = compressed;
+                flags |= FLAG_GZIP;
+            }
+        }
+        byte[] result = new byte[payload.length + 2];
+        result[0] = VERSION;
+        result[1] = (byte) flags;
+        System.arraycopy(payload, 0, result, 2, payload.length);
+        return result;
+    }
+
+    public <T> T decode(byte[] data, Class<T> type) {
+        return type.cast(decode(data, (Type) type));
+    }
+
+    // Throws IllegalArgumentException for a malformed payload or one that does not fit the type
+    public Object decode(byte[] data, Type type) {
+        if (data.length < 2 || data[0] != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary payload version");
+        }
+        byte[] payload = Arrays.copyOfRange(data, 2, data.length);
+        if ((data[1] & FLAG_GZIP) != 0) {
+            payload = gunzip(payload);
+        }
+        Input input = new Input(payload);
+        Object value = input.readValue();
+        if (input.position != payload.length) {
+            throw new IllegalArgumentException("Trailing bytes after binary payload");
+        }
+        return convert(value, type);
+    }
+
+    private static byte[] gzip(byte[] payload) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(payload.length / 2);
+        // Fastest level: the payloads are repetitive enough that it gets most of the reduction
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed) {{ def.setLevel(Deflater.BEST_SPEED); }}) {
+            out.write(payload);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] payload) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(payload))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupt compressed payload", e);
+        }
+    }
+
+    // Decoded containers are ArrayLists and LinkedHashMaps; shapes them into the requested type
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object convert(Object value, Type type) {
+        Class<?> raw = rawClass(type);
+        if (value == null || raw == null || raw == Object.class) {
+            return value;
+        }
+        if (raw.isArray() && value instanceof List) {
+            Type componentType = type instanceof GenericArrayType
+                    ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType();
+            List<?> list = (List<?>) value;
+            Object array = Array.newInstance(raw.getComponentType(), list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Array.set(array, i, convert(list.get(i), componentType));
+            }
+            return array;
+        }
+        if (Collection.class.isAssignableFrom(raw) && value instanceof List) {
+            Type elementType = typeArgument(type, 0);
+            Collection collection = newCollection(raw);
+            for (Object element : (List<?>) value) {
+                collection.add(convert(element, elementType));
+            }
+            return collection;
+        }
+        if (Map.class.isAssignableFrom(raw) && value instanceof Map) {
+            Type valueType = typeArgument(type, 1);
+            Map map = newMap(raw);
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(entry.getKey(), convert(entry.getValue(), valueType));
+            }
+            return map;
+        }
+        if (!raw.isInstance(value)) {
+            throw new IllegalArgumentException("Cannot read " + type.getTypeName() + " from " + value.getClass().getSimpleName());
+        }
+        return value;
+    }
+
+    private static Collection<?> newCollection(Class<?> raw) {
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())) {
+            if (SortedSet.class.isAssignableFrom(raw) || NavigableSet.class.isAssignableFrom(raw)) {
+                return new TreeSet<>();
+            }
+            return Set.class.isAssignableFrom(raw) ? new LinkedHashSet<>() : new ArrayList<>();
+        }
+        return (Collection<?>) instantiate(raw);
+    }
+
+    private static Map<?, ?> newMap(Class<?> raw) {
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())) {
+            return ConcurrentMap.class.isAssignableFrom(raw) ? new ConcurrentHashMap<>() : new LinkedHashMap<>();
+        }
+        return (Map<?, ?>) instantiate(raw);
+    }
+
+    private static Object instantiate(Class<?> raw) {
+        try {
+            return raw.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create " + raw.getName(), e);
+        }
+    }
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return rawClass(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            Class<?> component = rawClass(((GenericArrayType) type).getGenericComponentType());
+            return component == null ? null : Array.newInstance(component, 0).getClass();
+        }
+        return null;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private static class Output {
+        private byte[] buffer = new byte[256];
+        private int length = 0;
+
+        void writeValue(Object value) {
+            if (value == null) {
+                writeByte(NULL);
+            } else if (value instanceof String) {
+                writeByte(STRING);
+                writeString((String) value);
+            } else if (value instanceof Packet) {
+                writeByte(PACKET);
+                writePacket((Packet) value);
+            } else if (value instanceof Subscriber) {
+                writeByte(SUBSCRIBER);
+                writeSubscriber((Subscriber) value);
+            } else if (value instanceof Broker) {
+                writeByte(BROKER);
+                writeBroker((Broker) value);
+            } else if (value instanceof PartitionTable) {
+                writeByte(PARTITION_TABLE);
+                PartitionTable table = (PartitionTable) value;
+                writeSigned(table.getVersion());
+                writeSigned(table.getPartitionCount());
+                writeValue(table.getLeaders());
+            } else if (value instanceof CoordinatorSyncData) {
+                writeByte(SYNC_DATA);
+                writeSyncData((CoordinatorSyncData) value);
+            } else if (value instanceof ReplicationBatch) {
+                writeByte(REPLICATION_BATCH);
+                ReplicationBatch batch = (ReplicationBatch) value;
+                writeSigned(batch.getPartition());
+                writeValue(batch.getEntries());
+                writeSigned(batch.getDeliveredOffset());
+                writeSigned(batch.getLogStartOffset());
+            } else if (value instanceof ReplicationAck) {
+                writeByte(REPLICATION_ACK);
+                writeSigned(((ReplicationAck) value).getAckedOffset());
+                writeSigned(((ReplicationAck) value).getDeliveredOffset());
+            } else if (value instanceof SubscriptionChange) {
+                writeByte(SUBSCRIPTION_CHANGE);
+                SubscriptionChange change = (SubscriptionChange) value;
+                writeSigned(change.getVersion());
+                writeSigned(change.getOrigin());
+                writeByte(change.getType() != null ? change.getType().ordinal() + 1 : 0);
+                writeValue(change.getSubscriber());
+            } else if (value instanceof SubscriptionSnapshot) {
+                writeByte(SUBSCRIPTION_SNAPSHOT);
+                SubscriptionSnapshot snapshot = (SubscriptionSnapshot) value;
+                writeSigned(snapshot.getVersion());
+                writeSigned(snapshot.getOrigin());
+                writeValue(snapshot.getSubscribers());
+                writeValue(snapshot.getTopicSubscriptions());
+            } else if (value instanceof Collection) {
+                Collection<?> collection = (Collection<?>) value;
+                writeByte(LIST);
+                writeUnsigned(collection.size());
+                for (Object element : collection) {
+                    writeValue(element);
+                }
+            } else if (value instanceof Object[]) {
+                writeValue(Arrays.asList((Object[]) value));
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                writeByte(MAP);
+                writeUnsigned(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeString((String) entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            } else {
+                throw new IllegalArgumentException("No binary encoding for " + value.getClass().getSimpleName());
+            }
+        }
+
+        // Once the offsets are assigned the fields are final, so the encoding is cached on the packet
+        private void writePacket(Packet packet) {
+            byte[] cached = packet.cachedBinary();
+            if (cached == null && packet.getOffset() != null) {
+                Output fields = new Output();
+                fields.writePacketFields(packet);
+                cached = fields.toByteArray();
+                packet.cacheBinary(cached); // two threads may race here; both produce the same encoding
+            }
+            if (cached == null) {
+                writePacketFields(packet);
+                return;
+            }
+            ensure(cached.length);
+            System.arraycopy(cached, 0, buffer, length, cached.length);
+            length += cached.length;
+        }
+
+        // Optional fields are marked in a leading bitmask: mid, offset, topicOffset, attributes, priority, epoch, partition
+        private void writePacketFields(Packet packet) {
+            int present = (packet.getMid() != null ? 1 : 0)
+                    | (packet.getOffset() != null ? 2 : 0)
+                    | (packet.getTopicOffset() != null ? 4 : 0)
+                    | (packet.getAttributes() != null ? 8 : 0)
+                    | (packet.getPriority() != null ? 16 : 0)
+                    | (packet.getEpoch() != null ? 32 : 0)
+                    | (packet.getPartition() != null ? 64 : 0);
+            writeByte(present);
+            writeSigned(packet.getId());
+            writeString(packet.getTopic());
+            writeString(packet.getMessage());
+            writeString(packet.getPid());
+            writeString(packet.getTimestamp());
+            writeString(packet.getConflationKey());
+            if (packet.getMid() != null) {
+                writeSigned(packet.getMid());
+            }
+            if (packet.getOffset() != null) {
+                writeSigned(packet.getOffset());
+            }
+            if (packet.getTopicOffset() != null) {
+                writeSigned(packet.getTopicOffset());
+            }
+            if (packet.getAttributes() != null) {
+                writeUnsigned(packet.getAttributes().size());
+                for (Map.Entry<String, String> attribute : packet.getAttributes().entrySet()) {
+                    writeString(attribute.getKey());
+                    writeString(attribute.getValue());
+                }
+            }
+            if (packet.getPriority() != null) {
+                writeByte(packet.getPriority().ordinal());
+            }
+            if (packet.getEpoch() != null) {
+                writeSigned(packet.getEpoch());
+            }
+            if (packet.getPartition() != null) {
+                writeSigned(packet.getPartition());
+            }
+        }
+
+        // Optional fields: id, overflowPolicy; bit 4 carries batchDelivery
+        private void writeSubscriber(Subscriber subscriber) {
+            int present = (subscriber.getId() != null ? 1 : 0)
+                    | (subscriber.getOverflowPolicy() != null ? 2 : 0)
+                    | (subscriber.isBatchDelivery() ? 4 : 0);
+            writeByte(present);
+            writeString(subscriber.getTopic());
+            writeString(subscriber.getMessage());
+            writeString(subscriber.getConnectionUrl());
+            writeString(subscriber.getFilter());
+            if (subscriber.getId() != null) {
+                writeSigned(subscriber.getId());
+            }
+            if (subscriber.getOverflowPolicy() != null) {
+                writeByte(subscriber.getOverflowPolicy().ordinal());
+            }
+        }
+
+        private void writeBroker(Broker broker) {
+            writeSigned(broker.getId());
+            writeString(broker.getConnectionUrl());
+            writeSigned(broker.getPort());
+            writeByte(broker.isLeader() ? 1 : 0);
+        }
+
+        private void writeSyncData(CoordinatorSyncData syncData) {
+            writeValue(syncData.getBrokers());
+            writeValue(syncData.getLeaderBroker());
+            Map<Integer, Long> heartbeats = syncData.getBrokerHeartbeatMap();
+            if (heartbeats == null) {
+                writeUnsigned(0);
+            } else {
+                writeUnsigned(heartbeats.size() + 1);
+                for (Map.Entry<Integer, Long> heartbeat : heartbeats.entrySet()) {
+                    writeSigned(heartbeat.getKey());
+                    writeSigned(heartbeat.getValue());
+                }
+            }
+            writeValue(syncData.getPartitionTable());
+        }
+
+        // Length + 1, so that 0 stands for null
+        private void writeString(String value) {
+            if (value == null) {
+                writeUnsigned(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeUnsigned(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void writeSigned(long value) {
+            writeUnsigned((value << 1) ^ (value >> 63)); // zigzag, so small negatives stay short
+        }
+
+        private void writeUnsigned(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        private void writeByte(int value) {
+            ensure(1);
+            buffer[length++] = (byte) value;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+
+    private static class Input {
+        private final byte[] buffer;
+        private int position = 0;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        Object readValue() {
+            int tag = readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString();
+                case LIST: {
+                    int size = readSize();
+                    List<Object> list = new ArrayList<>(Math.min(size, 1024));
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case MAP: {
+                    int size = readSize();
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < size; i++) {
+                        map.put(readString(), readValue());
+                    }
+                    return map;
+                }
+                case PACKET:
+                    return readPacket();
+                case SUBSCRIBER:
+                    return readSubscriber();
+                case BROKER:
+                    return readBroker();
+                case PARTITION_TABLE:
+                    return new PartitionTable(readSigned(), (int) readSigned(), readList(Broker.class));
+                case SYNC_DATA:
+                    return readSyncData();
+                case REPLICATION_BATCH:
+                    return new ReplicationBatch((int) readSigned(), readList(Packet.class), readSigned(), readSigned());
+                case REPLICATION_ACK:
+                    return new ReplicationAck(readSigned(), readSigned());
+                case SUBSCRIPTION_CHANGE:
+                    return readSubscriptionChange();
+                case SUBSCRIPTION_SNAPSHOT:
+                    return readSubscriptionSnapshot();
+                default:
+                    throw new IllegalArgumentException("Unknown type tag " + tag);
+            }
+        }
+
+        private Packet readPacket() {
+            int start = position;
+            int present = readByte();
+            Packet packet = new Packet();
+            packet.setId((int) readSigned());
+            packet.setTopic(readString());
+            packet.setMessage(readString());
+            packet.setPid(readString());
+            packet.setTimestamp(readString());
+            packet.setConflationKey(readString());
+            if ((present & 1) != 0) {
+                packet.setMid((int) readSigned());
+            }
+            if ((present & 2) != 0) {
+                packet.setOffset(readSigned());
+            }
+            if ((present & 4) != 0) {
+                packet.setTopicOffset(readSigned());
+            }
+            if ((present & 8) != 0) {
+                int size = readSize();
+                Map<String, String> attributes = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    attributes.put(readString(), readString());
+                }
+                packet.setAttributes(attributes);
+            }
+            if ((present & 16) != 0) {
+                packet.setPriority(PRIORITIES[readOrdinal(PRIORITIES.length)]);
+            }
+            if ((present & 32) != 0) {
+                packet.setEpoch(readSigned());
+            }
+            if ((present & 64) != 0) {
+                packet.setPartition((int) readSigned());
+            }
+            if (packet.getOffset() != null) {
+                packet.cacheBinary(Arrays.copyOfRange(buffer, start, position)); // a follower that leads next resends these
+            }
+            return packet;
+        }
+
+        private Subscriber readSubscriber() {
+            int present = readByte();
+            Subscriber subscriber = new Subscriber();
+            subscriber.setTopic(readString());
+            subscriber.setMessage(readString());
+            subscriber.setConnectionUrl(readString());
+            subscriber.setFilter(readString());
+            subscriber.setBatchDelivery((present & 4) != 0);
+            if ((present & 1) != 0) {
+                subscriber.setId((int) readSigned());
+            }
+            if ((present & 2) != 0) {
+                subscriber.setOverflowPolicy(OVERFLOW_POLICIES[readOrdinal(OVERFLOW_POLICIES.length)]);
+            }
+            return subscriber;
+        }
+
+        private Broker readBroker() {
+            return new Broker((int) readSigned(), readString(), (int) readSigned(), readByte() != 0);
+        }
+
+        private CoordinatorSyncData readSyncData() {
+            List<Broker> brokers = readList(Broker.class);
+            Object leader = readValue();
+            if (leader != null && !(leader instanceof Broker)) {
+                throw new IllegalArgumentException("Expected a broker but found " + leader.getClass().getSimpleName());
+            }
+            ConcurrentHashMap<Integer, Long> heartbeats = null;
+            int size = readSize();
+            if (size > 0) {
+                heartbeats = new ConcurrentHashMap<>();
+                for (int i = 1; i < size; i++) {
+                    heartbeats.put((int) readSigned(), readSigned());
+                }
+            }
+            Object partitionTable = readValue();
+            if (partitionTable != null && !(partitionTable instanceof PartitionTable)) {
+                throw new IllegalArgumentException("Expected a partition table but found " + partitionTable.getClass().getSimpleName());
+            }
+            return new CoordinatorSyncData(brokers, (Broker) leader, heartbeats, (PartitionTable) partitionTable);
+        }
+
+        private SubscriptionChange readSubscriptionChange() {
+            long version = readSigned();
+            long origin = readSigned();
+            int type = readOrdinal(CHANGE_TYPES.length + 1);
+            Object subscriber = readValue();
+            if (subscriber != null && !(subscriber instanceof Subscriber)) {
+                throw new IllegalArgumentException("Expected a subscriber but found " + subscriber.getClass().getSimpleName());
+            }
+            return new SubscriptionChange(version, origin, type == 0 ? null : CHANGE_TYPES[type - 1], (Subscriber) subscriber);
+        }
+
+        @SuppressWarnings("unchecked")
+        private SubscriptionSnapshot readSubscriptionSnapshot() {
+            long version = readSigned();
+            long origin = readSigned();
+            List<Subscriber> subscribers = readList(Subscriber.class);
+            Object topicSubscriptions = readValue();
+            if (topicSubscriptions != null && !(topicSubscriptions instanceof Map)) {
+                throw new IllegalArgumentException("Expected a map but found " + topicSubscriptions.getClass().getSimpleName());
+            }
+            Map<String, List<Subscriber>> typed = (Map<String, List<Subscriber>>) convert(topicSubscriptions,
+                    new ParameterizedTypeReference<Map<String, List<Subscriber>>>() { }.getType());
+            return new SubscriptionSnapshot(version, origin, subscribers, typed);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> List<T> readList(Class<T> elementType) {
+            Object value = readValue();
+            if (value == null) {
+                return null;
+            }
+            if (!(value instanceof List)) {
+                throw new IllegalArgumentException("Expected a list but found " + value.getClass().getSimpleName());
+            }
+            for (Object element : (List<?>) value) {
+                if (element != null && !elementType.isInstance(element)) {
+                    throw new IllegalArgumentException("Expected " + elementType.getSimpleName() + " but found " + element.getClass().getSimpleName());
+                }
+            }
+            return (List<T>) value;
+        }
+
+        private String readString() {
+            int length = readSize();
+            if (length == 0) {
+                return null;
+            }
+            length--;
+            if (length > buffer.length - position) {
+                throw new IllegalArgumentException("Truncated binary payload");
+            }
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private int readOrdinal(int count) {
+            int ordinal = readByte();
+            if (ordinal >= count) {
+                throw new IllegalArgumentException("Unknown enum ordinal " + ordinal);
+            }
+            return ordinal;
+        }
+
+        private int readSize() {
+            long size = readUnsigned();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid length " + size);
+            }
+            return (int) size;
+        }
+
+        private long readSigned() {
+            long value = readUnsigned();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readUnsigned() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private int readByte() {
+            if (position >= buffer.length) {
+                throw new IllegalArgumentException("Truncated binary payload");
+            }
+            return buffer[position++] & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.sportsnotification.config;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+// Reads and writes BinaryCodec payloads under its content type. Requests are only read as binary
+// when they say so in Content-Type. The server side only answers in binary when the Accept header
+// asks for it, so external clients keep getting JSON; the client side (preferred) sends binary
+// whenever the body can be encoded, and lists binary first in Accept.
+public class BinaryHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+    private final BinaryCodec codec;
+    private final boolean preferred;
+
+    public BinaryHttpMessageConverter(BinaryCodec codec, boolean preferred) {
+        super(BinaryCodec.MEDIA_TYPE);
+        this.codec = codec;
+        this.preferred = preferred;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz != String.class && codec.canDecode(clazz); // a String body is already formatted
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return canRead(clazz, null, mediaType);
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        // A null media type comes from RestTemplate building its Accept header
+        return (mediaType == null || BinaryCodec.MEDIA_TYPE.equalsTypeAndSubtype(mediaType))
+                && type != String.class && codec.canDecode(type);
+    }
+
+    @Override
+    public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+        if (mediaType == null || mediaType.isWildcardType()) {
+            return preferred && supports(clazz);
+        }
+        return BinaryCodec.MEDIA_TYPE.isCompatibleWith(mediaType) && supports(clazz);
+    }
+
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        // A List<PublisherQuota> has no binary encoding, so it is left to the JSON converter
+        return canWrite(clazz, mediaType) && (type == null || codec.canEncodeType(type));
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        byte[] payload = StreamUtils.copyToByteArray(inputMessage.getBody());
+        try {
+            return codec.decode(payload, type);
+        } catch (IllegalArgumentException e) {
+            throw new HttpMessageNotReadableException("Invalid binary payload: " + e.getMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        return read(clazz, null, inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Object value, Type type, HttpOutputMessage outputMessage) throws IOException {
+        if (!codec.canEncode(value)) {
+            throw new HttpMessageNotWritableException("No binary encoding for " + value.getClass().getSimpleName());
+        }
+        outputMessage.getBody().write(codec.encode(value));
+    }
+}
@@ -0,0 +1,44 @@
+package com.sportsnotification.config;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.ResolvableSerializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.sportsnotification.dto.Packet;
+
+import java.io.IOException;
+
+// Writes a packet that already carries its encoded JSON straight from those bytes, so batches,
+// replication payloads and stream frames embed it without running the bean serializer again.
+// Packets without a cached encoding fall through to the regular bean serializer.
+public class EncodedPacketSerializer extends StdSerializer<Packet> implements ResolvableSerializer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JsonSerializer<Object> beanSerializer;
+
+    public EncodedPacketSerializer(JsonSerializer<Object> beanSerializer) {
+        super(Packet.class);
+        this.beanSerializer = beanSerializer;
+    }
+
+    @Override
+    public void resolve(SerializerProvider provider) throws JsonMappingException {
+        if (beanSerializer instanceof ResolvableSerializer) {
+            ((ResolvableSerializer) beanSerializer).resolve(provider);
+        }
+    }
+
+    @Override
+    public void serialize(Packet packet, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        SerializedString json = packet.cachedJson();
+        if (json != null) {
+            generator.writeRawValue(json);
+        } else {
+            beanSerializer.serialize(packet, generator, provider);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.sportsnotification.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private BinaryCodec binaryCodec;
+
+    // Appended after the JSON converter, so a request without an explicit Accept still gets JSON
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new BinaryHttpMessageConverter(binaryCodec, false));
+    }
+}
@@ -4,6 +4,7 @@ import com.sportsnotification.dto.Broker;
 import com.sportsnotification.dto.CoordinatorHeartbeat;
 import com.sportsnotification.dto.CoordinatorSyncData;
 import com.sportsnotification.dto.Heartbeat;
+import com.sportsnotification.dto.PartitionTable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.http.ResponseEntity;
@@ -105,6 +106,17 @@ public class CoordinatorController {
         }
     }
 
+    @GetMapping("/partitions")
+    public ResponseEntity<PartitionTable> getPartitions() {
+        try {
+            logger.info("Fetching partition table");
+            return ResponseEntity.ok(coordinatorService.getPartitionTable());
+        } catch (Exception e) {
+            logger.error("Error fetching partition table", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     @GetMapping("/leader")
     public ResponseEntity<Broker> getLeader() {
         try {
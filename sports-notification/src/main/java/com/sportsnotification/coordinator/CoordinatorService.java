@@ -1,11 +1,15 @@
 package com.sportsnotification.coordinator;
 
+import com.sportsnotification.config.BinaryCodec;
+import com.sportsnotification.config.BinaryHttpMessageConverter;
 import com.sportsnotification.dto.Broker;
 import com.sportsnotification.dto.CoordinatorHeartbeat;
 import com.sportsnotification.dto.CoordinatorSyncData;
 import com.sportsnotification.dto.Heartbeat;
+import com.sportsnotification.dto.PartitionTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpEntity;
@@ -56,9 +60,21 @@ public class CoordinatorService {
     @Value("${primaryCoordinatorURL:http://localhost:8080}")
     private String primaryCoordinatorURL;
     private final ConcurrentHashMap<String, Long> coordinatorHeartBeatMap = new ConcurrentHashMap<>();
+    @Autowired
+    private BinaryCodec binaryCodec;
+    @Value("${wire.binary.enabled:true}")
+    private boolean binaryEnabled;
+    // Topics hash into partitions, each led by one broker
+    @Value("${partition.count:16}")
+    private int partitionCount;
+    private volatile PartitionTable partitionTable = new PartitionTable(0, 0, List.of());
 
     @PostConstruct
     public void init() {
+        if (binaryEnabled) {
+            // Sync data, broker lists and leader updates go out in the binary wire format
+            restTemplate.getMessageConverters().add(0, new BinaryHttpMessageConverter(binaryCodec, true));
+        }
         try {
             if (isLocal) {
                 setConnectionUrls();
@@ -91,6 +107,8 @@ public class CoordinatorService {
             }
             brokers.add(broker);
             sendBrokersListToAllBrokersAsync(broker);
+            assignPartitions();
+            sendPartitionTableToAllBrokersAsync(broker);
             return brokers;
         } catch (Exception e) {
             logger.error("Error registering broker: {}", broker, e);
@@ -126,6 +144,10 @@ public class CoordinatorService {
         return brokers;
     }
 
+    public PartitionTable getPartitionTable() {
+        return partitionTable;
+    }
+
     public void syncData(CoordinatorSyncData syncData) {
         try {
             if (!isPrimary) {
@@ -134,6 +156,9 @@ public class CoordinatorService {
                 leaderBroker = syncData.getLeaderBroker();
                 brokerHeartbeatMap.clear();
                 brokerHeartbeatMap.putAll(syncData.getBrokerHeartbeatMap());
+                if (syncData.getPartitionTable() != null) {
+                    partitionTable = syncData.getPartitionTable();
+                }
 
                 logger.info("Secondary coordinator data synced.");
             }
@@ -182,6 +207,8 @@ public class CoordinatorService {
                 if (coordinatorHeartBeatMap.isEmpty()) {
                     logger.warn("Primary coordinator is down. Promoting secondary to primary.");
                     isPrimary = true;
+                    assignPartitions();
+                    sendPartitionTableToAllBrokersAsync(null);
                     startBrokerHeartbeatMonitor();
                 }
             } catch (Exception e) {
@@ -215,6 +242,10 @@ public class CoordinatorService {
                         sendBrokersListToAllBrokersAsync(broker);
                     }
                 }
+                if (!brokersToRemove.isEmpty()) {
+                    assignPartitions();
+                    sendPartitionTableToAllBrokersAsync(null);
+                }
             } catch (Exception e) {
                 logger.error("Error monitoring broker heartbeats", e);
             }
@@ -245,6 +276,44 @@ public class CoordinatorService {
         return null;
     }
 
+    // Gives every partition a live leader. A partition keeps its leader while that broker is alive and
+    // within its fair share, so membership changes move as few partitions as possible; the rest go to
+    // the brokers leading the fewest.
+    private synchronized void assignPartitions() {
+        List<Broker> live = new ArrayList<>(brokers);
+        if (live.isEmpty() || partitionCount <= 0) {
+            return;
+        }
+        live.sort(Comparator.comparingInt(Broker::getId));
+        int fairShare = (partitionCount + live.size() - 1) / live.size();
+        Map<Integer, Broker> liveById = new HashMap<>();
+        Map<Integer, Integer> led = new HashMap<>();
+        for (Broker broker : live) {
+            liveById.put(broker.getId(), broker);
+            led.put(broker.getId(), 0);
+        }
+        List<Broker> previous = partitionTable.getLeaders();
+        Broker[] leaders = new Broker[partitionCount];
+        for (int partition = 0; partition < partitionCount && partition < previous.size(); partition++) {
+            Broker leader = previous.get(partition) != null ? liveById.get(previous.get(partition).getId()) : null;
+            if (leader != null && led.get(leader.getId()) < fairShare) {
+                leaders[partition] = leader;
+                led.merge(leader.getId(), 1, Integer::sum);
+            }
+        }
+        for (int partition = 0; partition < partitionCount; partition++) {
+            if (leaders[partition] == null) {
+                Broker leader = live.stream().min(Comparator.comparingInt(broker -> led.get(broker.getId()))).get();
+                leaders[partition] = leader;
+                led.merge(leader.getId(), 1, Integer::sum);
+            }
+        }
+        // Versions stay ahead of an earlier coordinator's tables after a failover
+        long version = Math.max(partitionTable.getVersion() + 1, System.currentTimeMillis());
+        partitionTable = new PartitionTable(version, partitionCount, Arrays.asList(leaders));
+        logger.info("Assigned {} partitions across {} brokers, version {}", partitionCount, live.size(), version);
+    }
+
     private void electNewLeader() {
         Optional<Broker> newLeaderOpt = brokers.stream()
                 .max(Comparator.comparingInt(Broker::getId));
@@ -361,7 +430,7 @@ public class CoordinatorService {
             {
                 try {
                     String secondaryUrl = secondaryCoordinatorURL + "/coordinator/sync-data";
-                    CoordinatorSyncData syncData = new CoordinatorSyncData(brokers, leaderBroker, brokerHeartbeatMap);
+                    CoordinatorSyncData syncData = new CoordinatorSyncData(brokers, leaderBroker, brokerHeartbeatMap, partitionTable);
                     restTemplate.postForEntity(secondaryUrl, syncData, String.class);
                     logger.info("Synced data with secondary: " + secondaryCoordinatorURL);
                 } catch (Exception e) {
@@ -372,6 +441,22 @@ public class CoordinatorService {
     }
 
 
+    @Async
+    protected void sendPartitionTableToAllBrokersAsync(Broker skipBroker) {
+        PartitionTable table = partitionTable;
+        for (Broker broker : brokers) {
+            if (skipBroker != null && broker.getId() == skipBroker.getId()) {
+                continue; // A registering broker fetches the table itself
+            }
+            try {
+                restTemplate.put(broker.getConnectionUrl() + "/broker/update-partitions", table);
+                logger.info("Updated routing table for broker: " + broker.getId());
+            } catch (Exception e) {
+                logger.error("Failed to update routing table for broker: " + broker.getId());
+            }
+        }
+    }
+
     @Async
     protected void sendBrokersListToAllBrokersAsync(Broker skipBroker) {
         for (Broker broker : brokers) {
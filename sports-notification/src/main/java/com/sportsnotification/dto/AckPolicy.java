@@ -0,0 +1,8 @@
+package com.sportsnotification.dto;
+
+public enum AckPolicy {
+    NONE, // respond as soon as the packet is queued
+    LEADER, // respond once the leader has stored the packet
+    MAJORITY, // respond once a majority of the cluster, leader included, holds the packet
+    ALL // respond once every follower holds the packet
+}
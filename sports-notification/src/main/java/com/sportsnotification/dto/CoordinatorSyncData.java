@@ -7,14 +7,17 @@ public class CoordinatorSyncData {
     private List<Broker> brokers;
     private Broker leaderBroker;
     private ConcurrentHashMap<Integer, Long> brokerHeartbeatMap;
+    private PartitionTable partitionTable; // so a promoted secondary keeps the partitions where they are
 
     public CoordinatorSyncData() {
     }
     
-    public CoordinatorSyncData(List<Broker> brokers, Broker leaderBroker, ConcurrentHashMap<Integer, Long> brokerHeartbeatMap) {
+    public CoordinatorSyncData(List<Broker> brokers, Broker leaderBroker, ConcurrentHashMap<Integer, Long> brokerHeartbeatMap,
+                               PartitionTable partitionTable) {
         this.brokers = brokers;
         this.leaderBroker = leaderBroker;
         this.brokerHeartbeatMap = brokerHeartbeatMap;
+        this.partitionTable = partitionTable;
     }
 
     public List<Broker> getBrokers() {
@@ -29,6 +32,10 @@ public class CoordinatorSyncData {
         return this.brokerHeartbeatMap;
     }
 
+    public PartitionTable getPartitionTable() {
+        return this.partitionTable;
+    }
+
     public void setBrokers(List<Broker> brokers) {
         this.brokers = brokers;
     }
@@ -41,7 +48,11 @@ public class CoordinatorSyncData {
         this.brokerHeartbeatMap = brokerHeartbeatMap;
     }
 
+    public void setPartitionTable(PartitionTable partitionTable) {
+        this.partitionTable = partitionTable;
+    }
+
     public String toString() {
-        return "CoordinatorSyncData(brokers=" + this.getBrokers() + ", leaderBroker=" + this.getLeaderBroker() + ", brokerHeartbeatMap=" + this.getBrokerHeartbeatMap() + ")";
+        return "CoordinatorSyncData(brokers=" + this.getBrokers() + ", leaderBroker=" + this.getLeaderBroker() + ", brokerHeartbeatMap=" + this.getBrokerHeartbeatMap() + ", partitionTable=" + this.getPartitionTable() + ")";
     }
 }
@@ -0,0 +1,70 @@
+package com.sportsnotification.dto;
+
+public class DispatchLaneStats {
+    private Priority priority;
+    private int weight;
+    private int depth;
+    private long oldestWaitMs; // how long the packet at the head of the lane has been waiting
+    private double averageWaitMs; // average wait of dispatched packets
+    private long dispatched;
+
+    public DispatchLaneStats() {
+    }
+
+    public DispatchLaneStats(Priority priority, int weight, int depth, long oldestWaitMs, double averageWaitMs, long dispatched) {
+        this.priority = priority;
+        this.weight = weight;
+        this.depth = depth;
+        this.oldestWaitMs = oldestWaitMs;
+        this.averageWaitMs = averageWaitMs;
+        this.dispatched = dispatched;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public long getOldestWaitMs() {
+        return oldestWaitMs;
+    }
+
+    public void setOldestWaitMs(long oldestWaitMs) {
+        this.oldestWaitMs = oldestWaitMs;
+    }
+
+    public double getAverageWaitMs() {
+        return averageWaitMs;
+    }
+
+    public void setAverageWaitMs(double averageWaitMs) {
+        this.averageWaitMs = averageWaitMs;
+    }
+
+    public long getDispatched() {
+        return dispatched;
+    }
+
+    public void setDispatched(long dispatched) {
+        this.dispatched = dispatched;
+    }
+}
@@ -0,0 +1,52 @@
+package com.sportsnotification.dto;
+
+import java.util.List;
+
+public class MessagePage {
+    private String topic;
+    private List<Packet> messages;
+    private long nextOffset; // pass as fromOffset to fetch the following page
+    private long earliestOffset; // oldest topic offset still retained by the broker
+
+    public MessagePage() {
+    }
+
+    public MessagePage(String topic, List<Packet> messages, long nextOffset, long earliestOffset) {
+        this.topic = topic;
+        this.messages = messages;
+        this.nextOffset = nextOffset;
+        this.earliestOffset = earliestOffset;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public List<Packet> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<Packet> messages) {
+        this.messages = messages;
+    }
+
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    public void setNextOffset(long nextOffset) {
+        this.nextOffset = nextOffset;
+    }
+
+    public long getEarliestOffset() {
+        return earliestOffset;
+    }
+
+    public void setEarliestOffset(long earliestOffset) {
+        this.earliestOffset = earliestOffset;
+    }
+}
@@ -0,0 +1,7 @@
+package com.sportsnotification.dto;
+
+public enum OverflowPolicy {
+    DROP_OLDEST, // drop the oldest queued packet
+    CONFLATE, // drop the oldest queued packet on the same topic, so only the newest update is kept
+    DISCONNECT // drop the subscriber and its queue
+}
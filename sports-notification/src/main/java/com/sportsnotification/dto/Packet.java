@@ -1,12 +1,25 @@
 package com.sportsnotification.dto;
 
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.util.Map;
+
 public class Packet {
     private int id;
     private String topic;
     private String message;
     private String pid; // producer id
     private Integer mid; // message id
+    private Long epoch; // producer session; a producer that restarts its mids sends a higher one
     private String timestamp;
+    private Integer partition; // partition of the topic, whose leader assigns the offset
+    private Long offset; // position in the partition's replication log
+    private Long topicOffset; // per-topic sequence number
+    private Map<String, String> attributes; // key/value pairs that subscription filters can match on
+    private String conflationKey; // on conflated topics, a newer packet with the same key replaces a queued one
+    private Priority priority; // dispatch lane, NORMAL when not set
+    private transient volatile SerializedString json; // encoded once its offsets are final, then reused for every write
+    private transient volatile byte[] binary; // the same for the binary wire format
 
     public Packet() {
     }
@@ -60,6 +73,14 @@ public class Packet {
         this.mid = mid;
     }
 
+    public Long getEpoch() {
+        return epoch;
+    }
+
+    public void setEpoch(Long epoch) {
+        this.epoch = epoch;
+    }
+
     public String getTimestamp() {
         return timestamp;
     }
@@ -67,6 +88,69 @@ public class Packet {
     public void setTimestamp(String timestamp) {
         this.timestamp = timestamp;
     }
-}
 
+    public Integer getPartition() {
+        return partition;
+    }
+
+    public void setPartition(Integer partition) {
+        this.partition = partition;
+    }
+
+    public Long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(Long offset) {
+        this.offset = offset;
+    }
+
+    public Long getTopicOffset() {
+        return topicOffset;
+    }
+
+    public void setTopicOffset(Long topicOffset) {
+        this.topicOffset = topicOffset;
+    }
+
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    public void setAttributes(Map<String, String> attributes) {
+        this.attributes = attributes;
+    }
+
+    public String getConflationKey() {
+        return conflationKey;
+    }
 
+    public void setConflationKey(String conflationKey) {
+        this.conflationKey = conflationKey;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    // Not bean accessors, so Jackson never treats the cached encoding as a property
+    public SerializedString cachedJson() {
+        return json;
+    }
+
+    public void cacheJson(SerializedString json) {
+        this.json = json;
+    }
+
+    public byte[] cachedBinary() {
+        return binary;
+    }
+
+    public void cacheBinary(byte[] binary) {
+        this.binary = binary;
+    }
+}
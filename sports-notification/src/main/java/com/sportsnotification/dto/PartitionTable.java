@@ -0,0 +1,42 @@
+package com.sportsnotification.dto;
+
+import java.util.List;
+
+public class PartitionTable {
+    private long version; // a newer table replaces an older one
+    private int partitionCount; // a topic belongs to partition floorMod(topic.hashCode(), partitionCount)
+    private List<Broker> leaders; // leader of each partition, indexed by partition
+
+    public PartitionTable() {
+    }
+
+    public PartitionTable(long version, int partitionCount, List<Broker> leaders) {
+        this.version = version;
+        this.partitionCount = partitionCount;
+        this.leaders = leaders;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public void setPartitionCount(int partitionCount) {
+        this.partitionCount = partitionCount;
+    }
+
+    public List<Broker> getLeaders() {
+        return leaders;
+    }
+
+    public void setLeaders(List<Broker> leaders) {
+        this.leaders = leaders;
+    }
+}
@@ -0,0 +1,32 @@
+package com.sportsnotification.dto;
+
+import java.util.List;
+
+public class PollResult {
+    private List<Packet> messages;
+    private String cursor; // log position of the last message of each partition; ack it to receive the ones that follow, polling without an ack returns the same ones again
+
+    public PollResult() {
+    }
+
+    public PollResult(List<Packet> messages, String cursor) {
+        this.messages = messages;
+        this.cursor = cursor;
+    }
+
+    public List<Packet> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<Packet> messages) {
+        this.messages = messages;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+}
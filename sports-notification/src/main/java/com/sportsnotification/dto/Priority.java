@@ -0,0 +1,7 @@
+package com.sportsnotification.dto;
+
+public enum Priority {
+    HIGH, // final scores, breaking news
+    NORMAL, // default when a packet has no priority
+    LOW // bulk updates such as stats
+}
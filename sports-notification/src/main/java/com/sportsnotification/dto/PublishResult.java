@@ -0,0 +1,50 @@
+package com.sportsnotification.dto;
+
+public class PublishResult {
+    private int index; // position of the packet in the request
+    private PublishStatus status;
+    private Long offset;
+    private String error;
+
+    public PublishResult() {
+    }
+
+    public PublishResult(int index, PublishStatus status, Long offset, String error) {
+        this.index = index;
+        this.status = status;
+        this.offset = offset;
+        this.error = error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public PublishStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(PublishStatus status) {
+        this.status = status;
+    }
+
+    public Long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(Long offset) {
+        this.offset = offset;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
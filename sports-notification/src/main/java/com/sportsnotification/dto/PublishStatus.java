@@ -0,0 +1,10 @@
+package com.sportsnotification.dto;
+
+public enum PublishStatus {
+    PUBLISHED, // stored and acknowledged for the requested ack policy
+    NOT_ACKNOWLEDGED, // stored, but not acknowledged within the ack timeout
+    THROTTLED, // not stored because the broker is shedding load; retry later
+    DUPLICATE, // repeats a (pid, mid) already published, not stored again
+    REJECTED, // invalid, not stored
+    MISROUTED // sent to a broker that does not lead the topic's partition, not stored
+}
@@ -5,6 +5,8 @@ public class Publisher {
     private String topic;
     private String message;
     private String connectionUrl;
+    private Double rate; // messages per second, unlimited when not set
+    private Integer burst; // messages that may be published at once above the rate
 
     public Publisher() {
     }
@@ -47,4 +49,20 @@ public class Publisher {
     public void setConnectionUrl(String connectionUrl) {
         this.connectionUrl = connectionUrl;
     }
+
+    public Double getRate() {
+        return rate;
+    }
+
+    public void setRate(Double rate) {
+        this.rate = rate;
+    }
+
+    public Integer getBurst() {
+        return burst;
+    }
+
+    public void setBurst(Integer burst) {
+        this.burst = burst;
+    }
 }
@@ -0,0 +1,60 @@
+package com.sportsnotification.dto;
+
+public class PublisherQuota {
+    private String publisherId;
+    private double rate; // messages per second, 0 for unlimited
+    private int burst;
+    private long admitted;
+    private long throttled;
+
+    public PublisherQuota() {
+    }
+
+    public PublisherQuota(String publisherId, double rate, int burst, long admitted, long throttled) {
+        this.publisherId = publisherId;
+        this.rate = rate;
+        this.burst = burst;
+        this.admitted = admitted;
+        this.throttled = throttled;
+    }
+
+    public String getPublisherId() {
+        return publisherId;
+    }
+
+    public void setPublisherId(String publisherId) {
+        this.publisherId = publisherId;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    public void setAdmitted(long admitted) {
+        this.admitted = admitted;
+    }
+
+    public long getThrottled() {
+        return throttled;
+    }
+
+    public void setThrottled(long throttled) {
+        this.throttled = throttled;
+    }
+}
@@ -0,0 +1,34 @@
+package com.sportsnotification.dto;
+
+public class ReplicationAck {
+    private long ackedOffset; // the follower holds every entry up to this offset
+    private long deliveredOffset; // the follower has delivered its shard of every entry up to this offset
+
+    public ReplicationAck() {
+    }
+
+    public ReplicationAck(long ackedOffset) {
+        this.ackedOffset = ackedOffset;
+    }
+
+    public ReplicationAck(long ackedOffset, long deliveredOffset) {
+        this.ackedOffset = ackedOffset;
+        this.deliveredOffset = deliveredOffset;
+    }
+
+    public long getAckedOffset() {
+        return ackedOffset;
+    }
+
+    public void setAckedOffset(long ackedOffset) {
+        this.ackedOffset = ackedOffset;
+    }
+
+    public long getDeliveredOffset() {
+        return deliveredOffset;
+    }
+
+    public void setDeliveredOffset(long deliveredOffset) {
+        this.deliveredOffset = deliveredOffset;
+    }
+}
@@ -0,0 +1,52 @@
+package com.sportsnotification.dto;
+
+import java.util.List;
+
+public class ReplicationBatch {
+    private int partition; // the partition the entries belong to
+    private List<Packet> entries;
+    private long deliveredOffset; // every broker has delivered its shard of every entry up to this offset
+    private long logStartOffset; // oldest offset the leader still has; anything older was removed by retention
+
+    public ReplicationBatch() {
+    }
+
+    public ReplicationBatch(int partition, List<Packet> entries, long deliveredOffset, long logStartOffset) {
+        this.partition = partition;
+        this.entries = entries;
+        this.deliveredOffset = deliveredOffset;
+        this.logStartOffset = logStartOffset;
+    }
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public void setPartition(int partition) {
+        this.partition = partition;
+    }
+
+    public List<Packet> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<Packet> entries) {
+        this.entries = entries;
+    }
+
+    public long getDeliveredOffset() {
+        return deliveredOffset;
+    }
+
+    public void setDeliveredOffset(long deliveredOffset) {
+        this.deliveredOffset = deliveredOffset;
+    }
+
+    public long getLogStartOffset() {
+        return logStartOffset;
+    }
+
+    public void setLogStartOffset(long logStartOffset) {
+        this.logStartOffset = logStartOffset;
+    }
+}
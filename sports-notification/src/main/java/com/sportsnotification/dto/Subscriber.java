@@ -5,6 +5,9 @@ public class Subscriber {
     private String topic;
     private String message;
     private String connectionUrl;
+    private OverflowPolicy overflowPolicy;
+    private boolean batchDelivery; // subscriber accepts /subscriber/receive-batch
+    private String filter; // optional expression a packet must match to be delivered
 
     public Subscriber() {
     }
@@ -47,5 +50,29 @@ public class Subscriber {
     public void setConnectionUrl(String connectionUrl) {
         this.connectionUrl = connectionUrl;
     }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public boolean isBatchDelivery() {
+        return batchDelivery;
+    }
+
+    public void setBatchDelivery(boolean batchDelivery) {
+        this.batchDelivery = batchDelivery;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
     
 }
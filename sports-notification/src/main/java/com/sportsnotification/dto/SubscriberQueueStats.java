@@ -0,0 +1,70 @@
+package com.sportsnotification.dto;
+
+public class SubscriberQueueStats {
+    private String connectionUrl;
+    private int depth;
+    private int capacity;
+    private long dropped;
+    private long conflated; // packets that replaced a queued packet with the same conflation key
+    private OverflowPolicy overflowPolicy;
+
+    public SubscriberQueueStats() {
+    }
+
+    public SubscriberQueueStats(String connectionUrl, int depth, int capacity, long dropped, long conflated, OverflowPolicy overflowPolicy) {
+        this.connectionUrl = connectionUrl;
+        this.depth = depth;
+        this.capacity = capacity;
+        this.dropped = dropped;
+        this.conflated = conflated;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public String getConnectionUrl() {
+        return connectionUrl;
+    }
+
+    public void setConnectionUrl(String connectionUrl) {
+        this.connectionUrl = connectionUrl;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public void setDropped(long dropped) {
+        this.dropped = dropped;
+    }
+
+    public long getConflated() {
+        return conflated;
+    }
+
+    public void setConflated(long conflated) {
+        this.conflated = conflated;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+}
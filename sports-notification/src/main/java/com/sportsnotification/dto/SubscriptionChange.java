@@ -0,0 +1,50 @@
+package com.sportsnotification.dto;
+
+public class SubscriptionChange {
+    private long version; // position in the leader's sequence of subscription changes
+    private long origin; // identifies the leader process that assigned the version
+    private SubscriptionChangeType type;
+    private Subscriber subscriber;
+
+    public SubscriptionChange() {
+    }
+
+    public SubscriptionChange(long version, long origin, SubscriptionChangeType type, Subscriber subscriber) {
+        this.version = version;
+        this.origin = origin;
+        this.type = type;
+        this.subscriber = subscriber;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public long getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(long origin) {
+        this.origin = origin;
+    }
+
+    public SubscriptionChangeType getType() {
+        return type;
+    }
+
+    public void setType(SubscriptionChangeType type) {
+        this.type = type;
+    }
+
+    public Subscriber getSubscriber() {
+        return subscriber;
+    }
+
+    public void setSubscriber(Subscriber subscriber) {
+        this.subscriber = subscriber;
+    }
+}
@@ -0,0 +1,8 @@
+package com.sportsnotification.dto;
+
+public enum SubscriptionChangeType {
+    REGISTER, // a subscriber registered
+    SUBSCRIBE, // a subscriber subscribed to the topic pattern in its topic field
+    UNSUBSCRIBE, // a subscriber dropped the topic pattern in its topic field
+    REMOVE // a subscriber disconnected, with all of its subscriptions
+}
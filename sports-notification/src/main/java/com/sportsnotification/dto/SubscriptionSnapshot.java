@@ -0,0 +1,53 @@
+package com.sportsnotification.dto;
+
+import java.util.List;
+import java.util.Map;
+
+public class SubscriptionSnapshot {
+    private long version; // the last change this snapshot includes
+    private long origin; // leader process whose changes it reflects
+    private List<Subscriber> subscribers;
+    private Map<String, List<Subscriber>> topicSubscriptions;
+
+    public SubscriptionSnapshot() {
+    }
+
+    public SubscriptionSnapshot(long version, long origin, List<Subscriber> subscribers, Map<String, List<Subscriber>> topicSubscriptions) {
+        this.version = version;
+        this.origin = origin;
+        this.subscribers = subscribers;
+        this.topicSubscriptions = topicSubscriptions;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public long getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(long origin) {
+        this.origin = origin;
+    }
+
+    public List<Subscriber> getSubscribers() {
+        return subscribers;
+    }
+
+    public void setSubscribers(List<Subscriber> subscribers) {
+        this.subscribers = subscribers;
+    }
+
+    public Map<String, List<Subscriber>> getTopicSubscriptions() {
+        return topicSubscriptions;
+    }
+
+    public void setTopicSubscriptions(Map<String, List<Subscriber>> topicSubscriptions) {
+        this.topicSubscriptions = topicSubscriptions;
+    }
+}
@@ -0,0 +1,70 @@
+package com.sportsnotification.dto;
+
+public class WebSocketFrame {
+    private String type; // subscribe, unsubscribe, ack from the client; message, subscribed, unsubscribed, error from the broker
+    private String topic;
+    private String filter;
+    private Integer credits; // on ack: how many more messages the client is ready to receive
+    private Packet packet;
+    private String error;
+
+    public WebSocketFrame() {
+    }
+
+    public WebSocketFrame(String type, String topic, String filter, Integer credits, Packet packet, String error) {
+        this.type = type;
+        this.topic = topic;
+        this.filter = filter;
+        this.credits = credits;
+        this.packet = packet;
+        this.error = error;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    public Integer getCredits() {
+        return credits;
+    }
+
+    public void setCredits(Integer credits) {
+        this.credits = credits;
+    }
+
+    public Packet getPacket() {
+        return packet;
+    }
+
+    public void setPacket(Packet packet) {
+        this.packet = packet;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
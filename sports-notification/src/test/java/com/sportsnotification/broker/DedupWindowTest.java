@@ -0,0 +1,99 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Packet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DedupWindowTest {
+
+    private final DedupWindow window = new DedupWindow(64, 100);
+
+    @Test
+    void dropsRepeatedMids() {
+        assertTrue(window.admit(packet("feed-1", 1, 0L, 0)));
+        assertTrue(window.admit(packet("feed-1", 3, 0L, 0)));
+        assertTrue(window.admit(packet("feed-1", 2, 0L, 0)), "a mid below the highest that was not seen yet");
+        assertFalse(window.admit(packet("feed-1", 3, 0L, 0)));
+        assertFalse(window.admit(packet("feed-1", 2, 0L, 0)));
+        assertTrue(window.admit(packet("feed-2", 3, 0L, 0)), "another producer");
+        assertTrue(window.admit(packet(null, 3, 0L, 0)));
+        assertTrue(window.admit(packet(null, 3, 0L, 0)), "packets without a pid are always admitted");
+    }
+
+    @Test
+    void slidesWithTheHighestMid() {
+        assertTrue(window.admit(packet("feed-1", 10, 0L, 0)));
+        assertTrue(window.admit(packet("feed-1", 70, 0L, 0)));
+        // 10 is now outside the window of 64 below 70, and 11 to 69 were cleared as the window slid
+        assertTrue(window.isDuplicate(packet("feed-1", 10, 0L, 0)), "older than the window");
+        assertFalse(window.admit(packet("feed-1", 6, 0L, 0)), "older than the window");
+        assertTrue(window.admit(packet("feed-1", 69, 0L, 0)));
+        assertTrue(window.admit(packet("feed-1", 7 + 64, 0L, 0)));
+        assertFalse(window.admit(packet("feed-1", 70, 0L, 0)));
+        // A jump past the whole window forgets everything below it
+        assertTrue(window.admit(packet("feed-1", 1000, 0L, 0)));
+        assertTrue(window.admit(packet("feed-1", 999, 0L, 0)));
+        assertFalse(window.admit(packet("feed-1", 936, 0L, 0)), "older than the window");
+        assertTrue(window.admit(packet("feed-1", 937, 0L, 0)));
+    }
+
+    @Test
+    void restartsOnANewEpochAndDropsOlderOnes() {
+        assertTrue(window.admit(packet("feed-1", 500, 1L, 0)));
+        assertTrue(window.admit(packet("feed-1", 1, 2L, 0)), "a new session restarts the mids");
+        assertTrue(window.admit(packet("feed-1", 500, 2L, 0)));
+        assertFalse(window.admit(packet("feed-1", 501, 1L, 0)), "from a replaced session");
+        assertTrue(window.isDuplicate(packet("feed-1", 501, 1L, 0)));
+        assertFalse(window.admit(packet("feed-1", 500, 2L, 0)));
+        assertTrue(window.admit(packet("feed-1", 499, 2L, 0)));
+    }
+
+    @Test
+    void forgetsAdmittedMids() {
+        Packet packet = packet("feed-1", 5, 0L, 0);
+        assertTrue(window.admit(packet));
+        assertTrue(window.admit(packet("feed-1", 6, 0L, 0)));
+        window.forget(packet);
+        assertFalse(window.isDuplicate(packet));
+        assertTrue(window.admit(packet), "its retry is admitted");
+        assertFalse(window.admit(packet));
+        // Forgetting a mid of another epoch leaves the window alone
+        window.forget(packet("feed-1", 6, 1L, 0));
+        assertFalse(window.admit(packet("feed-1", 6, 0L, 0)));
+        window.forget(packet("feed-2", 6, 0L, 0));
+        assertEquals(1, window.size(), "forget does not create windows");
+    }
+
+    @Test
+    void keepsAWindowPerPartition() {
+        assertTrue(window.admit(packet("feed-1", 900, 0L, 0)));
+        assertTrue(window.admit(packet("feed-1", 2000, 0L, 1)));
+        assertFalse(window.isDuplicate(packet("feed-1", 901, 0L, 0)), "mids on another partition do not slide the window");
+        assertTrue(window.admit(packet("feed-1", 901, 0L, 0)));
+        assertFalse(window.admit(packet("feed-1", 900, 0L, 0)));
+        assertTrue(window.admit(packet("feed-1", 900, 0L, 2)));
+        assertEquals(3, window.size(), "one window per producer and partition");
+    }
+
+    @Test
+    void evictsTheLeastRecentlySeenWindows() {
+        DedupWindow small = new DedupWindow(64, 2);
+        assertTrue(small.admit(packet("feed-1", 1, 0L, 0)));
+        assertTrue(small.admit(packet("feed-2", 1, 0L, 0)));
+        assertFalse(small.admit(packet("feed-1", 1, 0L, 0)));
+        assertTrue(small.admit(packet("feed-3", 1, 0L, 0)));
+        assertEquals(2, small.size(), "windows kept");
+        assertTrue(small.admit(packet("feed-2", 1, 0L, 0)), "feed-2 was evicted");
+        assertFalse(small.admit(packet("feed-3", 1, 0L, 0)));
+    }
+
+    private static Packet packet(String pid, int mid, Long epoch, int partition) {
+        Packet packet = new Packet(0, "nba.lakers", "score", pid, mid, null);
+        packet.setEpoch(epoch);
+        packet.setPartition(partition);
+        return packet;
+    }
+}
@@ -0,0 +1,92 @@
+package com.sportsnotification.broker;
+
+import com.sportsnotification.dto.Packet;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilterCompilerTest {
+
+    private final FilterCompiler compiler = new FilterCompiler();
+
+    @Test
+    void matchesFieldsAndAttributes() {
+        Packet packet = packet(Map.of("type", "score", "player", "Davis"));
+        assertTrue(matches("topic = 'nba.lakers'", packet));
+        assertTrue(matches("pid == 'feed-1' and mid = '7'", packet));
+        assertTrue(matches("attributes.type = \"score\"", packet));
+        assertTrue(matches("player in ('James', 'Davis')", packet));
+        assertFalse(matches("player != 'Davis'", packet));
+        assertFalse(matches("message = 'other'", packet));
+    }
+
+    @Test
+    void combinesClausesWithPrecedence() {
+        Packet packet = packet(Map.of("type", "score", "quarter", "2"));
+        assertTrue(matches("type = 'foul' or type = 'score' and quarter < 4", packet));
+        assertFalse(matches("(type = 'foul' or type = 'score') and quarter > 2", packet));
+        assertTrue(matches("not type = 'foul' && !(quarter >= 3)", packet));
+        assertTrue(matches("type = 'foul' || quarter <= 2", packet));
+    }
+
+    @Test
+    void comparesNumbersAsNumbers() {
+        Packet packet = packet(Map.of("quarter", "1", "margin", "10", "team", "9ers"));
+        assertTrue(matches("quarter = 1.0", packet));
+        assertTrue(matches("quarter in (3, 1.0)", packet));
+        assertFalse(matches("quarter != '1.0'", packet));
+        assertTrue(matches("margin > 9", packet));
+        assertTrue(matches("margin < 9.5e1", packet));
+        // Text still compares as text
+        assertTrue(matches("team = '9ers'", packet));
+        assertTrue(matches("team > '10'", packet));
+    }
+
+    @Test
+    void neverMatchesMissingFields() {
+        Packet packet = packet(null);
+        assertFalse(matches("quarter = 1", packet));
+        assertFalse(matches("quarter != 1", packet));
+        assertTrue(matches("not quarter = 1", packet));
+    }
+
+    @Test
+    void treatsBlankFiltersAsMatchingEverything() {
+        assertNull(compiler.compile(null));
+        assertNull(compiler.compile("  "));
+    }
+
+    @Test
+    void rejectsInvalidFilters() {
+        for (String invalid : new String[] {"type =", "type ~ 'score'", "'type' = 'score'", "type = 'score",
+                "(type = 'score'", "type = 'score')", "player in ()", "type = 'score' and"}) {
+            assertThrows(IllegalArgumentException.class, () -> compiler.compile(invalid), invalid);
+        }
+    }
+
+    @Test
+    void keepsFiltersInUseCompiled() {
+        Predicate<Packet> filter = compiler.compile("type = 'score'");
+        for (int i = 0; i < 20000; i++) {
+            compiler.compile("mid = " + i);
+            assertSame(filter, compiler.compile("type = 'score'"));
+        }
+    }
+
+    private boolean matches(String expression, Packet packet) {
+        return compiler.compile(expression).test(packet);
+    }
+
+    private static Packet packet(Map<String, String> attributes) {
+        Packet packet = new Packet(1, "nba.lakers", "Davis scores", "feed-1", 7, "2024-01-01T00:00:00Z");
+        packet.setAttributes(attributes);
+        return packet;
+    }
+}
@@ -0,0 +1,198 @@
+package com.sportsnotification.config;
+
+import com.sportsnotification.dto.Broker;
+import com.sportsnotification.dto.CoordinatorSyncData;
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.PartitionTable;
+import com.sportsnotification.dto.PublisherQuota;
+import com.sportsnotification.dto.ReplicationAck;
+import com.sportsnotification.dto.ReplicationBatch;
+import com.sportsnotification.dto.Subscriber;
+import com.sportsnotification.dto.SubscriptionChange;
+import com.sportsnotification.dto.SubscriptionSnapshot;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ParameterizedTypeReference;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Round-trips every type the codec encodes with each of its fields set to a non-default value, so a
+// field added to a DTO without a binary encoding fails here instead of being dropped on the wire.
+class BinaryCodecTest {
+
+    private static final List<Class<?>> ENCODED_TYPES = List.of(Packet.class, Subscriber.class, Broker.class, PartitionTable.class,
+            CoordinatorSyncData.class, ReplicationBatch.class, ReplicationAck.class, SubscriptionChange.class, SubscriptionSnapshot.class);
+
+    private final BinaryCodec codec = new BinaryCodec(-1);
+    private int nextValue = 1;
+
+    @Test
+    void roundTripsEveryFieldOfEveryEncodedType() throws Exception {
+        for (Class<?> type : ENCODED_TYPES) {
+            Object value = sample(type);
+            assertFieldsEqual(type.getSimpleName(), value, codec.decode(codec.encode(value), type));
+        }
+    }
+
+    @Test
+    void roundTripsWithCompression() throws Exception {
+        BinaryCodec compressed = new BinaryCodec(0);
+        Object value = sample(ReplicationBatch.class);
+        assertFieldsEqual("ReplicationBatch", value, compressed.decode(compressed.encode(value), ReplicationBatch.class));
+    }
+
+    @Test
+    void leavesOptionalFieldsUnset() throws Exception {
+        Packet packet = codec.decode(codec.encode(new Packet()), Packet.class);
+        assertNull(packet.getMid());
+        assertNull(packet.getOffset());
+        assertNull(packet.getEpoch());
+        assertNull(packet.getPartition());
+        assertNull(packet.getAttributes());
+        assertNull(packet.getPriority());
+        Subscriber subscriber = codec.decode(codec.encode(new Subscriber()), Subscriber.class);
+        assertNull(subscriber.getId());
+        assertNull(subscriber.getOverflowPolicy());
+    }
+
+    @Test
+    void reusesTheEncodingOfSequencedPackets() throws Exception {
+        Packet packet = (Packet) sample(Packet.class);
+        byte[] first = codec.encode(packet);
+        assertNotNull(packet.cachedBinary());
+        assertArrayEquals(first, codec.encode(packet));
+
+        Packet decoded = codec.decode(first, Packet.class);
+        assertNotNull(decoded.cachedBinary());
+        assertArrayEquals(first, codec.encode(decoded));
+
+        Packet unsequenced = new Packet(1, "nba.game.1", "tip-off", "publisher-1", 1, null);
+        codec.encode(unsequenced);
+        assertNull(unsequenced.cachedBinary());
+    }
+
+    @Test
+    void checksTheElementTypesOfDeclaredContainers() {
+        assertTrue(codec.canEncodeType(new ParameterizedTypeReference<List<Packet>>() {}.getType()), "List<Packet>");
+        assertTrue(codec.canEncodeType(new ParameterizedTypeReference<Map<String, List<Subscriber>>>() {}.getType()), "Map<String, List<Subscriber>>");
+        assertTrue(codec.canEncodeType(Broker[].class), "Broker[]");
+        assertTrue(codec.canEncodeType(List.class), "a raw List is checked when written");
+        assertTrue(!codec.canEncodeType(new ParameterizedTypeReference<List<PublisherQuota>>() {}.getType()), "List<PublisherQuota>");
+        assertTrue(!codec.canEncodeType(new ParameterizedTypeReference<Map<Integer, Packet>>() {}.getType()), "Map<Integer, Packet>");
+        assertTrue(!codec.canEncodeType(PublisherQuota[].class), "PublisherQuota[]");
+
+        BinaryHttpMessageConverter converter = new BinaryHttpMessageConverter(codec, false);
+        Type quotas = new ParameterizedTypeReference<List<PublisherQuota>>() {}.getType();
+        assertTrue(!converter.canWrite(quotas, ArrayList.class, BinaryCodec.MEDIA_TYPE), "falls through to JSON");
+        Type packets = new ParameterizedTypeReference<List<Packet>>() {}.getType();
+        assertTrue(converter.canWrite(packets, ArrayList.class, BinaryCodec.MEDIA_TYPE), "List<Packet> in binary");
+    }
+
+    // Fills every serialized field, recursing into nested DTOs and containers
+    private Object sample(Class<?> type) throws Exception {
+        Object value = type.getDeclaredConstructor().newInstance();
+        for (Field field : serializedFields(type)) {
+            field.set(value, sample(field.getType(), field.getGenericType(), field.getName()));
+        }
+        return value;
+    }
+
+    private Object sample(Class<?> type, Type genericType, String name) throws Exception {
+        if (type == int.class || type == Integer.class) {
+            return nextValue++;
+        }
+        if (type == long.class || type == Long.class) {
+            return 1_000_000_000_000L + nextValue++;
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return true;
+        }
+        if (type == String.class) {
+            return name + "-" + nextValue++;
+        }
+        if (type.isEnum()) {
+            Object[] constants = type.getEnumConstants();
+            return constants[constants.length - 1]; // not the first, so a missing field cannot pass as ordinal 0
+        }
+        if (ENCODED_TYPES.contains(type)) {
+            return sample(type);
+        }
+        Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+        if (List.class.isAssignableFrom(type)) {
+            List<Object> list = new ArrayList<>();
+            list.add(sample(rawClass(arguments[0]), arguments[0], name));
+            list.add(sample(rawClass(arguments[0]), arguments[0], name));
+            return list;
+        }
+        if (Map.class.isAssignableFrom(type)) {
+            Map<Object, Object> map = type == ConcurrentHashMap.class ? new ConcurrentHashMap<>() : new LinkedHashMap<>();
+            for (int i = 0; i < 2; i++) {
+                map.put(sample(rawClass(arguments[0]), arguments[0], name + "-key"), sample(rawClass(arguments[1]), arguments[1], name));
+            }
+            return map;
+        }
+        throw new IllegalStateException("No sample value for field " + name + " of type " + genericType);
+    }
+
+    private void assertFieldsEqual(String path, Object expected, Object actual) throws Exception {
+        if (expected == null || actual == null) {
+            assertEquals(expected, actual, path);
+            return;
+        }
+        if (ENCODED_TYPES.contains(expected.getClass())) {
+            assertEquals(expected.getClass(), actual.getClass(), path);
+            for (Field field : serializedFields(expected.getClass())) {
+                assertFieldsEqual(path + "." + field.getName(), field.get(expected), field.get(actual));
+            }
+        } else if (expected instanceof Collection) {
+            Collection<?> expectedElements = (Collection<?>) expected;
+            Collection<?> actualElements = (Collection<?>) actual;
+            assertEquals(expectedElements.size(), actualElements.size(), path);
+            Iterator<?> actualIterator = actualElements.iterator();
+            int index = 0;
+            for (Object element : expectedElements) {
+                assertFieldsEqual(path + "[" + index++ + "]", element, actualIterator.next());
+            }
+        } else if (expected instanceof Map) {
+            Map<?, ?> expectedMap = (Map<?, ?>) expected;
+            Map<?, ?> actualMap = (Map<?, ?>) actual;
+            assertEquals(expectedMap.keySet(), actualMap.keySet(), path);
+            for (Map.Entry<?, ?> entry : expectedMap.entrySet()) {
+                assertFieldsEqual(path + "[" + entry.getKey() + "]", entry.getValue(), actualMap.get(entry.getKey()));
+            }
+        } else {
+            assertEquals(expected, actual, path);
+        }
+    }
+
+    private static List<Field> serializedFields(Class<?> type) {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        assertTrue(fields.size() > 0, type.getSimpleName());
+        return fields;
+    }
+
+    private static Class<?> rawClass(Type type) {
+        return type instanceof ParameterizedType ? (Class<?>) ((ParameterizedType) type).getRawType() : (Class<?>) type;
+    }
+}
@@ -0,0 +1,136 @@
+package com.sportsnotification.config;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sportsnotification.dto.Broker;
+import com.sportsnotification.dto.CoordinatorSyncData;
+import com.sportsnotification.dto.Packet;
+import com.sportsnotification.dto.PartitionTable;
+import com.sportsnotification.dto.ReplicationBatch;
+import com.sportsnotification.dto.Subscriber;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Compares JSON with the binary wire format, with and without compression, on the payloads that
+// dominate internal traffic: payload size and encode/decode time per payload. JSON uses the mapper
+// the brokers run with, including the cached packet encoding, and packets carry their offsets, so
+// both formats encode a replicated packet's fields once and reuse them as in production.
+// Run with: java -cp <test and runtime classpath> com.sportsnotification.config.WireFormatBenchmark
+public class WireFormatBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int MEASURED_ROUNDS = 5000;
+    private static final ObjectMapper PACKET_MAPPER = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+                .modulesToInstall(new AppConfig().encodedPacketModule())
+                .build();
+        BinaryCodec binary = new BinaryCodec(-1);
+        BinaryCodec compressed = new BinaryCodec(1024);
+
+        System.out.printf("%-28s %-16s %10s %12s %12s%n", "payload", "format", "bytes", "encode us", "decode us");
+        run("replication batch (500)", replicationBatch(), ReplicationBatch.class, objectMapper, binary, compressed);
+        run("topics to subscribers", topicsToSubscribers(), new TypeReference<Map<String, List<Subscriber>>>() { }.getType(), objectMapper, binary, compressed);
+        run("broker list (50)", brokers(50), new TypeReference<List<Broker>>() { }.getType(), objectMapper, binary, compressed);
+        run("coordinator sync data", syncData(), CoordinatorSyncData.class, objectMapper, binary, compressed);
+    }
+
+    private static void run(String name, Object value, Type type, ObjectMapper objectMapper,
+                            BinaryCodec binary, BinaryCodec compressed) throws Exception {
+        byte[] json = objectMapper.writeValueAsBytes(value);
+        measure(name, "json", json.length,
+                () -> objectMapper.writeValueAsBytes(value),
+                () -> objectMapper.readValue(json, objectMapper.constructType(type)));
+        byte[] plain = binary.encode(value);
+        measure(name, "binary", plain.length, () -> binary.encode(value), () -> binary.decode(plain, type));
+        byte[] gzipped = compressed.encode(value);
+        measure(name, "binary+gzip", gzipped.length, () -> compressed.encode(value), () -> compressed.decode(gzipped, type));
+    }
+
+    private static void measure(String name, String format, int bytes, Task encode, Task decode) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            encode.run();
+            decode.run();
+        }
+        long encodeNanos = time(encode);
+        long decodeNanos = time(decode);
+        System.out.printf("%-28s %-16s %10d %12.1f %12.1f%n", name, format, bytes,
+                encodeNanos / 1000.0 / MEASURED_ROUNDS, decodeNanos / 1000.0 / MEASURED_ROUNDS);
+    }
+
+    private static long time(Task task) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            task.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static ReplicationBatch replicationBatch() throws Exception {
+        List<Packet> entries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Packet packet = new Packet(i, "nba.game." + (i % 20), "Lakers " + (90 + i % 30) + " - Celtics " + (88 + i % 25),
+                    "publisher-" + (i % 5), i, "2024-03-01T19:" + (10 + i % 50) + ":00Z");
+            packet.setPartition(3);
+            packet.setOffset(100000L + i);
+            packet.setTopicOffset(5000L + i / 20);
+            Map<String, String> attributes = new LinkedHashMap<>();
+            attributes.put("type", i % 3 == 0 ? "score" : "foul");
+            attributes.put("quarter", String.valueOf(1 + i % 4));
+            packet.setAttributes(attributes);
+            entries.add(packet);
+        }
+        for (Packet packet : entries) {
+            // The commit log encodes each packet when it is appended, before it is replicated
+            packet.cacheJson(new SerializedString(PACKET_MAPPER.writeValueAsString(packet)));
+        }
+        return new ReplicationBatch(3, entries, 99990L, 1L);
+    }
+
+    private static Map<String, List<Subscriber>> topicsToSubscribers() {
+        Map<String, List<Subscriber>> topics = new LinkedHashMap<>();
+        for (int t = 0; t < 100; t++) {
+            List<Subscriber> subscribers = new ArrayList<>();
+            for (int s = 0; s < 20; s++) {
+                Subscriber subscriber = new Subscriber(t * 20 + s, "nba.game." + t, null, "http://10.0." + t + "." + s + ":9000");
+                subscriber.setFilter(s % 4 == 0 ? "type = 'score'" : null);
+                subscribers.add(subscriber);
+            }
+            topics.put("nba.game." + t, subscribers);
+        }
+        return topics;
+    }
+
+    private static List<Broker> brokers(int count) {
+        List<Broker> brokers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            brokers.add(new Broker(1000000 + i * 7919, "http://10.1.0." + i + ":8090", 8090, i == 0));
+        }
+        return brokers;
+    }
+
+    private static CoordinatorSyncData syncData() {
+        List<Broker> brokers = brokers(50);
+        ConcurrentHashMap<Integer, Long> heartbeats = new ConcurrentHashMap<>();
+        for (Broker broker : brokers) {
+            heartbeats.put(broker.getId(), 1709320000000L + broker.getId() % 1000);
+        }
+        List<Broker> leaders = new ArrayList<>();
+        for (int partition = 0; partition < 16; partition++) {
+            leaders.add(brokers.get(partition % brokers.size()));
+        }
+        return new CoordinatorSyncData(brokers, brokers.get(0), heartbeats, new PartitionTable(1709320000000L, 16, leaders));
+    }
+
+    private interface Task {
+        Object run() throws Exception;
+    }
+}